@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.benchmarks;
+
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks like org.openjdk.jmh.Main, but writes the results as JSON to
+ * target/jmh-result.json unless a result format is given.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class BenchmarkMain {
+  private static final String RESULT_FILE = "target/jmh-result.json";
+
+  public static void main(String[] args) throws RunnerException, IOException {
+    List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+    if (!arguments.contains("-rf") && !arguments.contains("-h") && !arguments.contains("-l")) {
+      new File(RESULT_FILE).getParentFile().mkdirs();
+      arguments.add(0, "-rf");
+      arguments.add(1, "json");
+      arguments.add(2, "-rff");
+      arguments.add(3, RESULT_FILE);
+    }
+    org.openjdk.jmh.Main.main(arguments.toArray(new String[arguments.size()]));
+  }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.benchmarks;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.m1theo.apt.repo.utils.Compression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compression of a Packages file of 10000 packages, sequentially and block-parallel.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+  @Param({"GZIP", "XZ", "BZIP2", "ZSTD"})
+  public Compression compression;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  private byte[] packages;
+  private ExecutorService executor;
+
+  @Setup
+  public void setUp() throws MojoExecutionException {
+    packages = Fixtures.packages(10000).toString().getBytes(Charset.forName("UTF-8"));
+    executor = Executors.newFixedThreadPool(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public void compress(final Blackhole blackhole) throws IOException {
+    OutputStream sink = new OutputStream() {
+      @Override
+      public void write(int b) {
+        blackhole.consume(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        blackhole.consume(len);
+      }
+    };
+    OutputStream out = compression.compress(sink, false, executor, threads);
+    out.write(packages);
+    out.close();
+  }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.benchmarks;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.m1theo.apt.repo.packages.PackageEntry;
+import org.m1theo.apt.repo.utils.ControlHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of control files, as read from the deb files.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlHandlerBenchmark {
+  private static final int CONTROLS = 64;
+
+  private byte[][] controls;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    controls = new byte[CONTROLS][];
+    for (int i = 0; i < CONTROLS; i++) {
+      controls[i] = Fixtures.control(i).getBytes(Charset.forName("UTF-8"));
+    }
+  }
+
+  @Benchmark
+  public PackageEntry handle() throws MojoExecutionException {
+    ControlHandler handler = new ControlHandler();
+    handler.setControlContent(controls[next++ % CONTROLS]);
+    PackageEntry entry = new PackageEntry();
+    handler.handle(entry);
+    return entry;
+  }
+
+}
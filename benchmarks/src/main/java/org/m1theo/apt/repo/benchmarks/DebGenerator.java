@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.benchmarks;
+
+import org.apache.commons.compress.archivers.ar.ArArchiveEntry;
+import org.apache.commons.compress.archivers.ar.ArArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.m1theo.apt.repo.utils.Compression;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes valid synthetic deb files: an ar archive of debian-binary, control.tar and data.tar, with
+ * the control files of {@link Fixtures#control(int)}, a few to a few hundred data files and
+ * members compressed with gzip, xz, zstd or not at all. Sizes are spread logarithmically, so most
+ * debs are small and a few are large, as in real repositories. The output only depends on the
+ * seed.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class DebGenerator {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final Pattern FIELD = Pattern.compile("^(Package|Version|Architecture): (.*)$",
+      Pattern.MULTILINE);
+  private static final Compression[] COMPRESSIONS =
+      {Compression.GZIP, Compression.GZIP, Compression.XZ, Compression.XZ, Compression.ZSTD,
+          Compression.NONE};
+  private static final String[] DIRECTORIES = {"usr/bin/", "usr/lib/", "usr/share/java/",
+      "usr/share/doc/", "etc/"};
+
+  private final long seed;
+  private int minSize = 1024;
+  private int maxSize = 4 * 1024 * 1024;
+
+  /**
+   * @param seed the seed of all random choices
+   */
+  public DebGenerator(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * @param minSize the minimum size of the data files of a deb in bytes, default 1 KiB
+   * @param maxSize the maximum size of the data files of a deb in bytes, default 4 MiB
+   */
+  public void setSizes(int minSize, int maxSize) {
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Writes count deb files to dir.
+   *
+   * @param dir the target directory, created if needed
+   * @param count the number of deb files
+   * @return the deb files written.
+   * @throws IOException
+   */
+  public List<File> generate(File dir, int count) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("could not create " + dir);
+    }
+    List<File> files = new ArrayList<File>(count);
+    for (int i = 0; i < count; i++) {
+      files.add(generateDeb(dir, i));
+    }
+    return files;
+  }
+
+  /**
+   * Writes the deb file of package i to dir.
+   *
+   * @param dir the target directory
+   * @param i the number of the package
+   * @return the deb file.
+   * @throws IOException
+   */
+  public File generateDeb(File dir, int i) throws IOException {
+    Random random = new Random(seed * 31 + i);
+    String control = Fixtures.control(i);
+    Matcher matcher = FIELD.matcher(control);
+    String name = null;
+    String version = null;
+    String architecture = null;
+    while (matcher.find()) {
+      if (matcher.group(1).equals("Package")) {
+        name = matcher.group(2);
+      } else if (matcher.group(1).equals("Version")) {
+        version = matcher.group(2);
+      } else {
+        architecture = matcher.group(2);
+      }
+    }
+    Compression compression = COMPRESSIONS[random.nextInt(COMPRESSIONS.length)];
+    byte[] controlTar = controlTar(control, compression);
+    byte[] dataTar = dataTar(name, random, compression);
+    File deb = new File(dir, name + "_" + version + "_" + architecture + ".deb");
+    ArArchiveOutputStream ar =
+        new ArArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(deb)));
+    try {
+      addMember(ar, "debian-binary", "2.0\n".getBytes(UTF8));
+      addMember(ar, "control.tar" + compression.getExtension(), controlTar);
+      addMember(ar, "data.tar" + compression.getExtension(), dataTar);
+    } finally {
+      ar.close();
+    }
+    return deb;
+  }
+
+  private static void addMember(ArArchiveOutputStream ar, String name, byte[] content)
+      throws IOException {
+    ar.putArchiveEntry(new ArArchiveEntry(name, content.length));
+    ar.write(content);
+    ar.closeArchiveEntry();
+  }
+
+  private static byte[] controlTar(String control, Compression compression) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    TarArchiveOutputStream tar = new TarArchiveOutputStream(compression.compress(bytes, false));
+    addDirectory(tar, "./");
+    addFile(tar, "./control", control.getBytes(UTF8));
+    addFile(tar, "./md5sums", new byte[0]);
+    tar.close();
+    return bytes.toByteArray();
+  }
+
+  private byte[] dataTar(String name, Random random, Compression compression) throws IOException {
+    // log-uniform total size, split into up to 200 files
+    double range = Math.log(maxSize) - Math.log(minSize);
+    long size = (long) Math.exp(Math.log(minSize) + random.nextDouble() * range);
+    int files = 1 + random.nextInt((int) Math.min(200, 1 + size / 4096));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) size / 2);
+    TarArchiveOutputStream tar = new TarArchiveOutputStream(compression.compress(bytes, false));
+    tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+    addDirectory(tar, "./");
+    for (String directory : DIRECTORIES) {
+      addDirectory(tar, "./" + directory);
+    }
+    for (int f = 0; f < files; f++) {
+      String path = "./" + DIRECTORIES[f % DIRECTORIES.length] + name + "/file-" + f;
+      addFile(tar, path, content(random, (int) (size / files)));
+    }
+    tar.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Returns half random and half repetitive content, so it compresses about as well as typical
+   * package contents.
+   */
+  private static byte[] content(Random random, int size) {
+    byte[] content = new byte[size];
+    byte[] noise = new byte[size / 2];
+    random.nextBytes(noise);
+    System.arraycopy(noise, 0, content, 0, noise.length);
+    for (int b = noise.length; b < size; b++) {
+      content[b] = (byte) ('a' + b % 23);
+    }
+    return content;
+  }
+
+  private static void addDirectory(TarArchiveOutputStream tar, String path) throws IOException {
+    TarArchiveEntry entry = new TarArchiveEntry(path);
+    entry.setMode(040755);
+    tar.putArchiveEntry(entry);
+    tar.closeArchiveEntry();
+  }
+
+  private static void addFile(TarArchiveOutputStream tar, String path, byte[] content)
+      throws IOException {
+    TarArchiveEntry entry = new TarArchiveEntry(path);
+    entry.setMode(0100644);
+    entry.setSize(content.length);
+    tar.putArchiveEntry(entry);
+    tar.write(content);
+    tar.closeArchiveEntry();
+  }
+
+  /**
+   * Usage: DebGenerator &lt;dir&gt; &lt;count&gt; [seed]
+   *
+   * @param args the arguments
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: DebGenerator <dir> <count> [seed]");
+      System.exit(2);
+    }
+    long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+    long start = System.currentTimeMillis();
+    List<File> files =
+        new DebGenerator(seed).generate(new File(args[0]), Integer.parseInt(args[1]));
+    System.out.println("wrote " + files.size() + " deb files to " + args[0] + " in "
+        + (System.currentTimeMillis() - start) + " ms");
+  }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.benchmarks;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.m1theo.apt.repo.utils.DefaultHashes;
+import org.m1theo.apt.repo.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing of deb files: a single digest and all four digests of the Packages file.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DigestBenchmark {
+
+  /**
+   * Size of the deb file: a small library, a typical application and a large bundle.
+   */
+  @Param({"65536", "4194304", "67108864"})
+  public long size;
+
+  private File file;
+
+  @Setup
+  public void setUp() throws IOException {
+    file = Fixtures.randomFile(size);
+  }
+
+  @Benchmark
+  public String getDigestSha256() throws MojoExecutionException {
+    return Utils.getDigest("SHA-256", file);
+  }
+
+  @Benchmark
+  public DefaultHashes getDefaultDigests() throws MojoExecutionException {
+    return Utils.getDefaultDigests(file);
+  }
+
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.benchmarks;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.openpgp.PGPEncryptedData;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.bc.BcPBESecretKeyEncryptorBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPDigestCalculatorProvider;
+import org.bouncycastle.openpgp.operator.bc.BcPGPKeyPair;
+import org.bouncycastle.openpgp.operator.jcajce.JcaKeyFingerprintCalculator;
+import org.m1theo.apt.repo.packages.PackageEntry;
+import org.m1theo.apt.repo.packages.Packages;
+import org.m1theo.apt.repo.release.Release;
+import org.m1theo.apt.repo.release.ReleaseInfo;
+import org.m1theo.apt.repo.utils.ControlHandler;
+import org.m1theo.apt.repo.utils.DefaultHashes;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Synthetic, deterministic inputs of realistic sizes for the benchmarks.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class Fixtures {
+  public static final String KEY_PASSPHRASE = "benchmark";
+  private static final String[] SECTIONS = {"admin", "devel", "java", "libs", "net", "utils", "web"};
+  private static final String[] ARCHITECTURES = {"all", "amd64", "arm64"};
+  private static final String[] WORDS = {"apt", "repository", "server", "client", "library",
+      "java", "runtime", "service", "tool", "data", "network", "daemon", "plugin", "support"};
+
+  /**
+   * Returns a control file like the ones of typical packages: all common fields, a dependency
+   * list, some optional relationship fields and a multi-line description.
+   *
+   * @param i the number of the package, determines names and field lengths
+   * @return String
+   */
+  public static String control(int i) {
+    Random random = new Random(i);
+    StringBuilder control = new StringBuilder(1024);
+    control.append("Package: package-").append(i).append('\n');
+    control.append("Version: ").append(1 + random.nextInt(5)).append('.').append(random.nextInt(20))
+        .append('.').append(random.nextInt(100)).append("-1\n");
+    control.append("Architecture: ").append(ARCHITECTURES[i % ARCHITECTURES.length])
+        .append('\n');
+    control.append("Maintainer: Build Team <build-").append(i % 7).append("@example.org>\n");
+    control.append("Installed-Size: ").append(10 + random.nextInt(100000)).append('\n');
+    control.append("Depends: libc6 (>= 2.17)");
+    for (int d = random.nextInt(8); d > 0; d--) {
+      control.append(", lib").append(WORDS[random.nextInt(WORDS.length)]).append(d)
+          .append(" (>= ").append(random.nextInt(10)).append(".0)");
+    }
+    control.append('\n');
+    if (random.nextInt(4) == 0) {
+      control.append("Recommends: ").append(WORDS[random.nextInt(WORDS.length)]).append('\n');
+    }
+    if (random.nextInt(8) == 0) {
+      control.append("Provides: ").append(WORDS[random.nextInt(WORDS.length)]).append("-api\n");
+      control.append("Conflicts: package-").append(i + 1).append(" (<< 1.0)\n");
+    }
+    control.append("Section: ").append(SECTIONS[i % SECTIONS.length]).append('\n');
+    control.append("Priority: optional\n");
+    control.append("Homepage: https://example.org/package-").append(i).append('\n');
+    control.append("Description: ").append(sentence(random, 6)).append('\n');
+    for (int l = 2 + random.nextInt(8); l > 0; l--) {
+      control.append(' ').append(sentence(random, 12)).append('\n');
+    }
+    return control.toString();
+  }
+
+  private static String sentence(Random random, int words) {
+    StringBuilder sentence = new StringBuilder();
+    for (int w = 0; w < words; w++) {
+      if (w > 0) {
+        sentence.append(' ');
+      }
+      sentence.append(WORDS[random.nextInt(WORDS.length)]);
+    }
+    return sentence.toString();
+  }
+
+  /**
+   * Returns a package entry as created by the indexer, with synthetic hashes.
+   *
+   * @param i the number of the package
+   * @return PackageEntry
+   * @throws MojoExecutionException
+   */
+  public static PackageEntry entry(int i) throws MojoExecutionException {
+    PackageEntry entry = new PackageEntry();
+    ControlHandler handler = new ControlHandler();
+    handler.setControlContent(control(i));
+    handler.handle(entry);
+    DefaultHashes hashes = hashes(i);
+    entry.setFilename("package-" + i + "_1.0_amd64.deb");
+    entry.setSize(100000L + i * 37L);
+    entry.setMd5sum(hashes.getMd5());
+    entry.setSha1(hashes.getSha1());
+    entry.setSha256(hashes.getSha256());
+    entry.setSha512(hashes.getSha512());
+    return entry;
+  }
+
+  /**
+   * Returns the {@link Packages} of count synthetic entries.
+   *
+   * @param count number of packages
+   * @return Packages
+   * @throws MojoExecutionException
+   */
+  public static Packages packages(int count) throws MojoExecutionException {
+    Packages packages = new Packages();
+    for (int i = 0; i < count; i++) {
+      packages.addPackageEntry(entry(i));
+    }
+    return packages;
+  }
+
+  /**
+   * Returns a Release with count index files, e.g. Packages variants of several architectures.
+   *
+   * @param count number of index files
+   * @return Release
+   * @throws MojoExecutionException
+   */
+  public static Release release(int count) throws MojoExecutionException {
+    Release release = new Release();
+    release.setSuite("stable");
+    release.setArchitectures("amd64 arm64");
+    release.setComponents("main");
+    for (int i = 0; i < count; i++) {
+      release.addInfo(new ReleaseInfo("main/binary-arch" + i + "/Packages.gz", 1000L + i,
+          hashes(i)));
+    }
+    return release;
+  }
+
+  private static DefaultHashes hashes(int i) {
+    Random random = new Random(-i);
+    DefaultHashes hashes = new DefaultHashes();
+    hashes.setMd5(hex(random, 16));
+    hashes.setSha1(hex(random, 20));
+    hashes.setSha256(hex(random, 32));
+    hashes.setSha512(hex(random, 64));
+    return hashes;
+  }
+
+  private static String hex(Random random, int bytes) {
+    StringBuilder hex = new StringBuilder(bytes * 2);
+    for (int i = 0; i < bytes; i++) {
+      hex.append(String.format("%02x", random.nextInt(256)));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Creates a temporary file of the given size with random content.
+   *
+   * @param size the size in bytes
+   * @return the file, deleted on exit
+   * @throws IOException
+   */
+  public static File randomFile(long size) throws IOException {
+    File file = File.createTempFile("apt-repo-bench", ".bin");
+    file.deleteOnExit();
+    Random random = new Random(size);
+    byte[] buffer = new byte[64 * 1024];
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+    try {
+      for (long written = 0; written < size; written += buffer.length) {
+        random.nextBytes(buffer);
+        out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+      }
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  /**
+   * Creates a secret keyring with a new 2048 bit RSA signing key protected by
+   * {@link #KEY_PASSPHRASE}.
+   *
+   * @return the encoded keyring, its key id is returned by {@link #keyId(byte[])}
+   * @throws PGPException
+   * @throws IOException
+   */
+  public static byte[] keyring() throws PGPException, IOException {
+    RSAKeyPairGenerator generator = new RSAKeyPairGenerator();
+    generator.init(new RSAKeyGenerationParameters(BigInteger.valueOf(0x10001), new SecureRandom(),
+        2048, 12));
+    PGPKeyPair pair =
+        new BcPGPKeyPair(PGPPublicKey.RSA_GENERAL, generator.generateKeyPair(), new Date());
+    PGPDigestCalculator sha1 = new BcPGPDigestCalculatorProvider().get(HashAlgorithmTags.SHA1);
+    PGPSecretKey secretKey = new PGPSecretKey(PGPSignature.DEFAULT_CERTIFICATION, pair,
+        "apt-repo benchmark <bench@example.org>", sha1, null, null,
+        new BcPGPContentSignerBuilder(PGPPublicKey.RSA_GENERAL, HashAlgorithmTags.SHA256),
+        new BcPBESecretKeyEncryptorBuilder(PGPEncryptedData.AES_256, sha1)
+            .build(KEY_PASSPHRASE.toCharArray()));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    secretKey.encode(out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns the short key id of a keyring created by {@link #keyring()}.
+   *
+   * @param keyring the encoded keyring
+   * @return the key id as 8 hex digits
+   * @throws PGPException
+   * @throws IOException
+   */
+  public static String keyId(byte[] keyring) throws PGPException, IOException {
+    PGPSecretKey key =
+        new PGPSecretKeyRing(keyring, new JcaKeyFingerprintCalculator()).getSecretKey();
+    return String.format("%08x", key.getKeyID() & 0xFFFFFFFFL);
+  }
+
+}
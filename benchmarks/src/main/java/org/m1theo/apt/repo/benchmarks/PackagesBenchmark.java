@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.benchmarks;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.m1theo.apt.repo.packages.PackageEntry;
+import org.m1theo.apt.repo.packages.Packages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of Packages stanzas and whole Packages files.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackagesBenchmark {
+
+  /**
+   * Number of packages in the repository.
+   */
+  @Param({"100", "10000"})
+  public int count;
+
+  private PackageEntry entry;
+  private Packages packages;
+
+  @Setup
+  public void setUp() throws MojoExecutionException {
+    entry = Fixtures.entry(1);
+    packages = Fixtures.packages(count);
+  }
+
+  @Benchmark
+  public String entryToString() {
+    return entry.toString();
+  }
+
+  @Benchmark
+  public String packagesToString() {
+    return packages.toString();
+  }
+
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.benchmarks;
+
+import org.m1theo.apt.repo.AptRepoCli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * End-to-end scaling test: generates a repository of synthetic deb files with
+ * {@link DebGenerator}, builds it once from scratch and once more with the package cache, and
+ * checks wall time, peak heap and bytes read against budgets. The build runs through
+ * {@link AptRepoCli}, i.e. the same pipeline as the apt-repo goal, including staging. Run it in a
+ * JVM of its own so heap and I/O are not shared with Maven, e.g. with the scaling profile of the
+ * benchmarks pom.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class ScalingRun {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final long MB = 1024 * 1024;
+  private static final String USAGE = "usage: ScalingRun [options] [-- apt-repo options]\n"
+      + "  --work=DIR            working directory (default target/scaling)\n"
+      + "  --packages=N          number of deb files (default 2000)\n"
+      + "  --seed=N              seed of the generator (default 0)\n"
+      + "  --max-size=BYTES      maximum data size of a deb (default 4194304)\n"
+      + "  --max-seconds=N       budget for the wall time of the first build\n"
+      + "  --max-warm-seconds=N  budget for the wall time of the cached build\n"
+      + "  --max-heap-mb=N       budget for the peak heap of the first build\n"
+      + "  --max-read-factor=F   budget for the bytes read by the first build, as a multiple of\n"
+      + "                        the size of all deb files\n"
+      + "The apt-repo options after -- are passed to each build, e.g. --layout=dists.\n";
+
+  private File work = new File("target/scaling");
+  private int packages = 2000;
+  private long seed;
+  private int maxSize = 4 * 1024 * 1024;
+  private double maxSeconds = -1;
+  private double maxWarmSeconds = -1;
+  private long maxHeapMb = -1;
+  private double maxReadFactor = -1;
+  private final List<String> options = new ArrayList<String>();
+
+  public static void main(String[] args) throws IOException {
+    ScalingRun run = new ScalingRun();
+    try {
+      run.parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      System.exit(2);
+    }
+    System.exit(run.run());
+  }
+
+  private void parse(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("--")) {
+        for (i++; i < args.length; i++) {
+          options.add(args[i]);
+        }
+        break;
+      }
+      int eq = arg.indexOf('=');
+      if (!arg.startsWith("--") || eq < 0) {
+        throw new IllegalArgumentException("invalid argument " + arg);
+      }
+      String name = arg.substring(2, eq);
+      String value = arg.substring(eq + 1);
+      try {
+        if (name.equals("work")) {
+          work = new File(value);
+        } else if (name.equals("packages")) {
+          packages = Integer.parseInt(value);
+        } else if (name.equals("seed")) {
+          seed = Long.parseLong(value);
+        } else if (name.equals("max-size")) {
+          maxSize = Integer.parseInt(value);
+        } else if (name.equals("max-seconds")) {
+          maxSeconds = Double.parseDouble(value);
+        } else if (name.equals("max-warm-seconds")) {
+          maxWarmSeconds = Double.parseDouble(value);
+        } else if (name.equals("max-heap-mb")) {
+          maxHeapMb = Long.parseLong(value);
+        } else if (name.equals("max-read-factor")) {
+          maxReadFactor = Double.parseDouble(value);
+        } else {
+          throw new IllegalArgumentException("unknown option " + arg);
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("invalid number in " + arg);
+      }
+    }
+  }
+
+  /**
+   * @return the exit code: 0 if all budgets are met, 1 otherwise.
+   */
+  private int run() throws IOException {
+    List<File> debs = generate();
+    long debBytes = 0;
+    for (File deb : debs) {
+      debBytes += deb.length();
+    }
+    File repo = new File(work, "repo");
+    delete(repo);
+    List<String> args = new ArrayList<String>(options);
+    args.add(repo.getPath());
+    for (File deb : debs) {
+      args.add(deb.getPath());
+    }
+    Measurement cold = measure(args.toArray(new String[args.size()]));
+    List<String> warmArgs = new ArrayList<String>(options);
+    warmArgs.add("--force");
+    warmArgs.add(repo.getPath());
+    Measurement warm = measure(warmArgs.toArray(new String[warmArgs.size()]));
+
+    System.out.println();
+    System.out.println(String.format(Locale.ENGLISH, "%d deb files, %d MB", debs.size(),
+        debBytes / MB));
+    System.out.println(String.format(Locale.ENGLISH, "%-8s %10s %12s %12s", "build", "seconds",
+        "peak heap MB", "read MB"));
+    print("first", cold);
+    print("cached", warm);
+    writeResult(debs.size(), debBytes, cold, warm);
+
+    List<String> failures = new ArrayList<String>();
+    if (cold.exitCode != 0 || warm.exitCode != 0) {
+      failures.add("build failed");
+    }
+    if (maxSeconds >= 0 && cold.seconds() > maxSeconds) {
+      failures.add("first build took " + cold.seconds() + " s, budget " + maxSeconds + " s");
+    }
+    if (maxWarmSeconds >= 0 && warm.seconds() > maxWarmSeconds) {
+      failures.add("cached build took " + warm.seconds() + " s, budget " + maxWarmSeconds + " s");
+    }
+    if (maxHeapMb >= 0 && cold.peakHeap / MB > maxHeapMb) {
+      failures.add("first build used " + cold.peakHeap / MB + " MB heap, budget " + maxHeapMb
+          + " MB");
+    }
+    if (maxReadFactor >= 0 && cold.bytesRead >= 0 && cold.bytesRead > maxReadFactor * debBytes) {
+      failures.add("first build read " + cold.bytesRead / MB + " MB, budget "
+          + (long) (maxReadFactor * debBytes / MB) + " MB");
+    }
+    for (String failure : failures) {
+      System.err.println("FAILED: " + failure);
+    }
+    return failures.isEmpty() ? 0 : 1;
+  }
+
+  /**
+   * Generates the deb files, unless the ones of a previous run with the same settings exist.
+   */
+  private List<File> generate() throws IOException {
+    File dir = new File(work, "debs");
+    File marker = new File(work, "debs.properties");
+    String settings = "packages=" + packages + " seed=" + seed + " maxSize=" + maxSize;
+    if (marker.isFile() && settings.equals(read(marker))) {
+      File[] files = dir.listFiles();
+      if (files != null && files.length == packages) {
+        List<File> debs = new ArrayList<File>(files.length);
+        for (File file : files) {
+          debs.add(file);
+        }
+        return debs;
+      }
+    }
+    delete(dir);
+    marker.delete();
+    long start = System.currentTimeMillis();
+    DebGenerator generator = new DebGenerator(seed);
+    generator.setSizes(Math.min(1024, maxSize), maxSize);
+    List<File> debs = generator.generate(dir, packages);
+    write(marker, settings);
+    System.out.println("generated " + debs.size() + " deb files in "
+        + (System.currentTimeMillis() - start) + " ms");
+    return debs;
+  }
+
+  private Measurement measure(String[] args) throws IOException {
+    System.gc();
+    List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+        pools.add(pool);
+      }
+    }
+    long read = bytesRead();
+    long start = System.nanoTime();
+    Measurement measurement = new Measurement();
+    measurement.exitCode = AptRepoCli.run(args);
+    measurement.nanos = System.nanoTime() - start;
+    long readAfter = bytesRead();
+    measurement.bytesRead = read < 0 || readAfter < 0 ? -1 : readAfter - read;
+    // the sum of the peaks of the pools, an upper bound of the peak of the whole heap
+    for (MemoryPoolMXBean pool : pools) {
+      measurement.peakHeap += pool.getPeakUsage().getUsed();
+    }
+    return measurement;
+  }
+
+  /**
+   * Returns the bytes read by this process from /proc/self/io, or -1 if it is not available.
+   */
+  private static long bytesRead() {
+    File io = new File("/proc/self/io");
+    if (!io.canRead()) {
+      return -1;
+    }
+    try {
+      for (String line : read(io).split("\n")) {
+        if (line.startsWith("rchar:")) {
+          return Long.parseLong(line.substring(6).trim());
+        }
+      }
+    } catch (IOException e) {
+      // not available
+    } catch (NumberFormatException e) {
+      // not available
+    }
+    return -1;
+  }
+
+  private static void print(String name, Measurement measurement) {
+    System.out.println(String.format(Locale.ENGLISH, "%-8s %10.2f %12d %12s", name,
+        measurement.seconds(), measurement.peakHeap / MB,
+        measurement.bytesRead < 0 ? "n/a" : String.valueOf(measurement.bytesRead / MB)));
+  }
+
+  private void writeResult(int count, long debBytes, Measurement cold, Measurement warm)
+      throws IOException {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n  \"packages\": ").append(count).append(",\n  \"debBytes\": ")
+        .append(debBytes).append(",\n  \"first\": ").append(cold.toJson())
+        .append(",\n  \"cached\": ").append(warm.toJson()).append("\n}\n");
+    File result = new File(work, "scaling-result.json");
+    write(result, json.toString());
+    System.out.println("result written to " + result);
+  }
+
+  private static String read(File file) throws IOException {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+    try {
+      StringBuilder content = new StringBuilder();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        content.append(line).append('\n');
+      }
+      return content.toString().trim();
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static void write(File file, String content) throws IOException {
+    file.getParentFile().mkdirs();
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+    try {
+      writer.write(content);
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static class Measurement {
+    private int exitCode;
+    private long nanos;
+    private long peakHeap;
+    private long bytesRead;
+
+    private double seconds() {
+      return nanos / 1e9;
+    }
+
+    private String toJson() {
+      return String.format(Locale.ENGLISH,
+          "{\"exitCode\": %d, \"seconds\": %.3f, \"peakHeapBytes\": %d, \"bytesRead\": %d}",
+          exitCode, seconds(), peakHeap, bytesRead);
+    }
+  }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.benchmarks;
+
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.openpgp.PGPException;
+import org.m1theo.apt.repo.signing.PGPSigner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing of a Release file with a 2048 bit RSA key, including loading and decrypting the key. The
+ * sign benchmark creates InRelease and Release.gpg together.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SigningBenchmark {
+  private byte[] keyring;
+  private String keyId;
+  private String release;
+  private byte[] releaseBytes;
+  private PGPSigner signer;
+
+  @Setup
+  public void setUp() throws Exception {
+    keyring = Fixtures.keyring();
+    keyId = Fixtures.keyId(keyring);
+    release = Fixtures.release(60).toString();
+    releaseBytes = release.getBytes("UTF-8");
+    signer = createSigner();
+  }
+
+  private PGPSigner createSigner() throws IOException, PGPException {
+    return new PGPSigner(new ByteArrayInputStream(keyring), keyId, Fixtures.KEY_PASSPHRASE,
+        HashAlgorithmTags.SHA256);
+  }
+
+  @Benchmark
+  public PGPSigner loadKey() throws IOException, PGPException {
+    return createSigner();
+  }
+
+  @Benchmark
+  public byte[] clearSign() throws IOException, PGPException, GeneralSecurityException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    signer.clearSign(release, out);
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] clearSignDetached() throws IOException, PGPException, GeneralSecurityException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    signer.clearSignDetached(release, out);
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public int sign() throws IOException, PGPException, GeneralSecurityException {
+    ByteArrayOutputStream inRelease = new ByteArrayOutputStream();
+    ByteArrayOutputStream releaseGpg = new ByteArrayOutputStream();
+    signer.sign(new ByteArrayInputStream(releaseBytes), inRelease, releaseGpg);
+    return inRelease.size() + releaseGpg.size();
+  }
+
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.m1theo.apt.repo.server.RepoServer;
+import org.m1theo.apt.repo.utils.Compression;
+import org.m1theo.apt.repo.utils.RepoLock;
+import org.m1theo.apt.repo.utils.StagingMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Command line entry point to create or update an apt repository without Maven, see
+ * {@link RepoBuilder}.
+ *
+ * <pre>
+ * java -cp ... org.m1theo.apt.repo.AptRepoCli [options] repoDir [deb files to add...]
+ * </pre>
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class AptRepoCli {
+  private static final String USAGE = "usage: AptRepoCli [options] <repoDir> [deb files...]\n"
+      + "  --layout=flat|dists        repository layout (default flat)\n"
+      + "  --suite=NAME               suite of the dists layout (default stable)\n"
+      + "  --codename=NAME            codename of the suite\n"
+      + "  --component=NAME           component of the dists layout (default main)\n"
+      + "  --architectures=A,B        architectures of the dists layout\n"
+      + "  --compressions=gz,xz,...   compressed Packages variants (default gz)\n"
+      + "  --egress-optimized         add xz and use the strongest compression\n"
+      + "  --compression-threads=N    threads to compress index files (default 1)\n"
+      + "  --threads=N                threads to index deb files (default 1)\n"
+      + "  --no-cache                 do not use .apt-repo-cache\n"
+      + "  --contents                 create Contents-<arch>.gz files\n"
+      + "  --pdiff-history=N          number of pdiffs to keep (default 0)\n"
+      + "  --by-hash                  publish index files under by-hash\n"
+      + "  --by-hash-retention=MIN    minutes to keep superseded by-hash files\n"
+      + "  --staging=MODE             copy, hardlink, symlink or reflink (default copy)\n"
+      + "  --type=EXT                 file type of the deb files (default deb)\n"
+      + "  --keyring=FILE             sign with a key of this keyring\n"
+      + "  --key=ID                   the key to sign with\n"
+      + "  --passphrase-file=FILE     file with the passphrase of the key\n"
+      + "  --digest=NAME              digest for signing (default SHA256)\n"
+      + "  --force                    rebuild even if nothing changed\n"
+      + "  --spill                    keep the package fields off the heap\n"
+      + "  --watch                    keep running and update the repository on changes\n"
+      + "  --debounce=MS              quiet time before changes are applied (default 500)\n"
+      + "  --serve=PORT               serve the repository over HTTP on this port\n"
+      + "  --bind=ADDRESS             address to serve on (default localhost)\n"
+      + "  --metrics=FILE             log the time spent per phase and write it to FILE\n"
+      + "  --debug                    print debug messages\n";
+
+  public static void main(String[] args) {
+    System.exit(run(args));
+  }
+
+  /**
+   * Runs the command line.
+   *
+   * @param args the arguments
+   * @return the exit code: 0 on success, 1 if the build failed, 2 for invalid arguments.
+   */
+  public static int run(String[] args) {
+    final boolean[] debug = new boolean[1];
+    final SystemStreamLog log = new SystemStreamLog() {
+      @Override
+      public boolean isDebugEnabled() {
+        return debug[0];
+      }
+
+      @Override
+      public void debug(CharSequence content) {
+        if (debug[0]) {
+          super.debug(content);
+        }
+      }
+
+      @Override
+      public void debug(CharSequence content, Throwable error) {
+        if (debug[0]) {
+          super.debug(content, error);
+        }
+      }
+
+      @Override
+      public void debug(Throwable error) {
+        if (debug[0]) {
+          super.debug(error);
+        }
+      }
+    };
+    File repoDir = null;
+    List<File> debs = new ArrayList<File>();
+    File keyring = null;
+    String key = null;
+    File passphraseFile = null;
+    boolean watch = false;
+    long debounce = -1;
+    int port = -1;
+    String bind = "localhost";
+    File metricsFile = null;
+    List<String> options = new ArrayList<String>();
+    for (String arg : args) {
+      if (arg.equals("--help") || arg.equals("-h")) {
+        System.out.print(USAGE);
+        return 0;
+      } else if (arg.equals("--debug")) {
+        debug[0] = true;
+      } else if (arg.startsWith("--")) {
+        options.add(arg);
+      } else if (repoDir == null) {
+        repoDir = new File(arg);
+      } else {
+        debs.add(new File(arg));
+      }
+    }
+    if (repoDir == null) {
+      System.err.print(USAGE);
+      return 2;
+    }
+    RepoBuilder builder = new RepoBuilder(repoDir, log);
+    try {
+      for (String option : options) {
+        int eq = option.indexOf('=');
+        String name = eq < 0 ? option.substring(2) : option.substring(2, eq);
+        String value = eq < 0 ? null : option.substring(eq + 1);
+        if (name.equals("layout")) {
+          builder.setLayout(required(name, value));
+        } else if (name.equals("suite")) {
+          builder.setSuite(required(name, value));
+        } else if (name.equals("codename")) {
+          builder.setCodename(required(name, value));
+        } else if (name.equals("component")) {
+          builder.setComponent(required(name, value));
+        } else if (name.equals("architectures")) {
+          builder.setArchitectures(required(name, value).split(","));
+        } else if (name.equals("compressions")) {
+          Set<Compression> compressions = EnumSet.noneOf(Compression.class);
+          for (String compression : required(name, value).split(",")) {
+            compressions.add(Compression.fromName(compression));
+          }
+          builder.setCompressions(compressions);
+        } else if (name.equals("egress-optimized")) {
+          builder.setEgressOptimized(true);
+        } else if (name.equals("compression-threads")) {
+          builder.setCompressionThreads(number(name, value));
+        } else if (name.equals("threads")) {
+          builder.setThreads(number(name, value));
+        } else if (name.equals("no-cache")) {
+          builder.setCache(false);
+        } else if (name.equals("contents")) {
+          builder.setContents(true);
+        } else if (name.equals("pdiff-history")) {
+          builder.setPdiffHistory(number(name, value));
+        } else if (name.equals("by-hash")) {
+          builder.setByHash(true);
+        } else if (name.equals("by-hash-retention")) {
+          builder.setByHashRetention(number(name, value));
+        } else if (name.equals("staging")) {
+          builder.setStaging(staging(required(name, value)));
+        } else if (name.equals("type")) {
+          builder.setType(required(name, value));
+        } else if (name.equals("keyring")) {
+          keyring = new File(required(name, value));
+        } else if (name.equals("key")) {
+          key = required(name, value);
+        } else if (name.equals("passphrase-file")) {
+          passphraseFile = new File(required(name, value));
+        } else if (name.equals("digest")) {
+          builder.setDigest(required(name, value));
+        } else if (name.equals("force")) {
+          builder.setForce(true);
+        } else if (name.equals("spill")) {
+          builder.setSpill(true);
+        } else if (name.equals("watch")) {
+          watch = true;
+        } else if (name.equals("debounce")) {
+          debounce = number(name, value);
+        } else if (name.equals("serve")) {
+          port = number(name, value);
+        } else if (name.equals("bind")) {
+          bind = required(name, value);
+        } else if (name.equals("metrics")) {
+          metricsFile = new File(required(name, value));
+        } else {
+          throw new IllegalArgumentException("unknown option " + option);
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      return 2;
+    } catch (MojoExecutionException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      return 2;
+    }
+    if (keyring != null || key != null || passphraseFile != null) {
+      builder.setSigning(keyring, key, null, passphraseFile);
+    }
+    try {
+      builder.validate();
+      if (!repoDir.exists()) {
+        repoDir.mkdirs();
+      }
+      RepoLock lock = RepoLock.acquire(repoDir);
+      try {
+        builder.stageAll(debs);
+      } finally {
+        lock.release();
+      }
+      final RepoServer server;
+      if (port >= 0) {
+        server = new RepoServer(repoDir, log);
+        try {
+          server.bind(new InetSocketAddress(bind, port));
+        } catch (IOException e) {
+          log.error("could not listen on " + bind + ":" + port + ": " + e);
+          return 1;
+        }
+      } else {
+        server = null;
+      }
+      if (watch) {
+        if (server != null) {
+          Thread serverThread = new Thread(new Runnable() {
+            public void run() {
+              try {
+                server.run();
+              } catch (IOException e) {
+                log.error("serving failed", e);
+              }
+            }
+          }, "apt-repo-server");
+          serverThread.setDaemon(true);
+          serverThread.start();
+        }
+        RepoDaemon daemon = new RepoDaemon(builder, log);
+        if (debounce >= 0) {
+          daemon.setDebounce(debounce);
+        }
+        daemon.run();
+      } else {
+        builder.build();
+        if (metricsFile != null) {
+          builder.getMetrics().log(log);
+          try {
+            builder.getMetrics().writeJson(metricsFile);
+          } catch (IOException e) {
+            log.warn("could not write " + metricsFile + ": " + e);
+          }
+        }
+        if (server != null) {
+          server.run();
+        }
+      }
+      return 0;
+    } catch (IOException e) {
+      log.error("serving failed: " + e);
+      return 1;
+    } catch (MojoExecutionException e) {
+      if (debug[0]) {
+        log.error(e.getMessage(), e);
+      } else {
+        log.error(e.getMessage() + (e.getCause() != null ? ": " + e.getCause() : ""));
+      }
+      return 1;
+    }
+  }
+
+  private static String required(String name, String value) {
+    if (value == null || value.isEmpty()) {
+      throw new IllegalArgumentException("option --" + name + " needs a value");
+    }
+    return value;
+  }
+
+  private static int number(String name, String value) {
+    try {
+      return Integer.parseInt(required(name, value));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("option --" + name + " needs a number");
+    }
+  }
+
+  private static StagingMode staging(String value) {
+    try {
+      return StagingMode.valueOf(value.toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("unknown staging mode " + value);
+    }
+  }
+
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo;
+
+import org.apache.maven.AbstractMavenLifecycleParticipant;
+import org.apache.maven.MavenExecutionException;
+import org.apache.maven.execution.MavenSession;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Writes every repository once at the end of the build, after all executions of the apt-repo goal
+ * have staged their deb files, no matter in which order modules were built, failed or were
+ * skipped (mvn -T, --fail-at-end). Active when the plugin is declared with
+ * &lt;extensions&gt;true&lt;/extensions&gt;, see META-INF/plexus/components.xml.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class AptRepoLifecycleParticipant extends AbstractMavenLifecycleParticipant {
+
+  @Override
+  public void afterProjectsRead(MavenSession session) {
+    RepoParticipants.start(session);
+  }
+
+  @Override
+  public void afterSessionEnd(MavenSession session) throws MavenExecutionException {
+    for (Callable<?> repo : RepoParticipants.finish(session)) {
+      try {
+        repo.call();
+      } catch (Exception e) {
+        throw new MavenExecutionException(e.getMessage(), e);
+      }
+    }
+  }
+
+}
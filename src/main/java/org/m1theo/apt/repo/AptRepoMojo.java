@@ -8,56 +8,45 @@
 
 package org.m1theo.apt.repo;
 
-import org.apache.commons.compress.archivers.ArchiveException;
-import org.apache.commons.compress.archivers.ArchiveInputStream;
-import org.apache.commons.compress.archivers.ArchiveStreamFactory;
-import org.apache.commons.compress.archivers.ar.ArArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.utils.IOUtils;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
-import org.bouncycastle.bcpg.HashAlgorithmTags;
-import org.bouncycastle.openpgp.PGPException;
-import org.codehaus.plexus.util.FileUtils;
-import org.m1theo.apt.repo.packages.PackageEntry;
-import org.m1theo.apt.repo.packages.Packages;
-import org.m1theo.apt.repo.release.Release;
-import org.m1theo.apt.repo.release.ReleaseInfo;
-import org.m1theo.apt.repo.signing.PGPSigner;
-import org.m1theo.apt.repo.utils.ControlHandler;
-import org.m1theo.apt.repo.utils.DefaultHashes;
+import org.m1theo.apt.repo.utils.Compression;
+import org.m1theo.apt.repo.utils.RepoLock;
+import org.m1theo.apt.repo.utils.StagingMode;
 import org.m1theo.apt.repo.utils.Utils;
 
 import java.io.*;
-import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.Locale;
+import java.util.Set;
 
 /**
  * Goal which creates an apt repository.
+ * <p>
+ * Several modules of a reactor may use the same repoDir, also in parallel builds: each execution
+ * stages its deb files while holding the {@link RepoLock} of repoDir. With the plugin declared as
+ * extension the {@link AptRepoLifecycleParticipant} indexes every repoDir once at the end of the
+ * build, otherwise every execution indexes its repoDir.
  * 
  * @author Theo Weiss
  * @since 0.1.0
  * 
  */
-@Mojo(name = "apt-repo", defaultPhase = LifecyclePhase.PACKAGE)
+@Mojo(name = "apt-repo", defaultPhase = LifecyclePhase.PACKAGE, threadSafe = true)
 public class AptRepoMojo extends AbstractMojo {
-  private static final String RELEASE = "Release";
-  private static final String RELEASEGPG = "Release.gpg";
-  private static final String INRELEASE = "InRelease";
-  private static final String PACKAGES = "Packages";
-  private static final String PACKAGES_GZ = "Packages.gz";
   private static final String FAILED_TO_CREATE_APT_REPO = "Failed to create apt-repo: ";
-  private static final String CONTROL_FILE_NAME = "./control";
 
   @Component
   private MavenProjectHelper projectHelper;
@@ -111,6 +100,46 @@ public class AptRepoMojo extends AbstractMojo {
   @Parameter(defaultValue = "${project.build.directory}/apt-repo", property = "apt-repo.repoDir", required = true)
   private File repoDir;
 
+  /**
+   * The repository layout: "flat" puts the deb files and one Packages index into repoDir, "dists"
+   * puts the deb files into a pool/ tree and creates dists/&lt;suite&gt;/&lt;component&gt;/binary-&lt;arch&gt;/
+   * indices per architecture with a Release file for the suite.
+   */
+  @Parameter(defaultValue = "flat", property = "apt-repo.layout")
+  private String layout;
+
+  /**
+   * The suite of the "dists" layout.
+   */
+  @Parameter(defaultValue = "stable", property = "apt-repo.suite")
+  private String suite;
+
+  /**
+   * The codename of the suite of the "dists" layout.
+   */
+  @Parameter(property = "apt-repo.codename")
+  private String codename;
+
+  /**
+   * The component of the "dists" layout. All packages are placed into this one component.
+   */
+  @Parameter(defaultValue = "main", property = "apt-repo.component")
+  private String component;
+
+  /**
+   * The architectures to create indices for in the "dists" layout. Defaults to the architectures
+   * of the packages. Packages for "all" are added to every architecture.
+   */
+  @Parameter(property = "apt-repo.architectures")
+  private String[] architectures;
+
+  /**
+   * Whether to create Contents-&lt;arch&gt;.gz indices listing the files of all packages, as used
+   * by apt-file. The file lists are kept in the cache.
+   */
+  @Parameter(defaultValue = "false", property = "apt-repo.contents")
+  private boolean contents;
+
   /**
    * File type of the deb files.
    */
@@ -124,7 +153,18 @@ public class AptRepoMojo extends AbstractMojo {
   private Boolean aggregate;
 
   /**
-   * Boolean option whether to attach the artifact to the project
+   * Boolean option to create the repository once at the end of the build: the executions only
+   * register repoDir, after the last project of the reactor was built the deb files of all reactor
+   * projects are collected in a single pass and indexed once. Requires the plugin to be declared
+   * with &lt;extensions&gt;true&lt;/extensions&gt;. If the build fails nothing is aggregated.
+   * aggregate is ignored.
+   */
+  @Parameter(defaultValue = "false", property = "apt-repo.aggregateAtEnd")
+  private boolean aggregateAtEnd;
+
+  /**
+   * Boolean option whether to attach the artifact to the project. Has no effect when the
+   * repository is indexed at the end of the build.
    */
   @Parameter(defaultValue = "true")
   private Boolean attach;
@@ -135,202 +175,221 @@ public class AptRepoMojo extends AbstractMojo {
   @Parameter(defaultValue = "apt-repo", property = "apt-repo.classifier")
   private String classifier;
 
+  /**
+   * The compressed variants of the Packages file to create in addition to the uncompressed one.
+   * Supported are gz, xz, bz2 and zst.
+   */
+  @Parameter(defaultValue = "gz", property = "apt-repo.compressions")
+  private String[] compressions;
+
+  /**
+   * Boolean option to minimise the size of the served index files. Adds xz to the compressions
+   * and uses the strongest compression level of each format, at the cost of build time.
+   */
+  @Parameter(defaultValue = "false", property = "apt-repo.egressOptimized")
+  private boolean egressOptimized;
+
+  /**
+   * Number of threads used to compress gzip and xz index files. With more than one thread the
+   * data is compressed in independent blocks, which standard gzip, xz and apt can read. A value
+   * of 0 uses one thread per available processor.
+   */
+  @Parameter(defaultValue = "1", property = "apt-repo.compressionThreads")
+  private int compressionThreads;
+
+  /**
+   * Number of threads used to index the deb files. A value of 0 uses one thread per available
+   * processor. The generated files do not depend on this setting.
+   */
+  @Parameter(defaultValue = "1", property = "apt-repo.threads")
+  private int threads;
+
+  /**
+   * How the deb files are placed into repoDir: copy, hardlink, symlink or reflink. If linking
+   * fails, e.g. across file systems, the file is copied. Files already present with the same
+   * content are not staged again.
+   */
+  @Parameter(defaultValue = "copy", property = "apt-repo.staging")
+  private String staging;
+
+  /**
+   * Number of pdiffs (ed style patches between successive Packages files) to keep in
+   * Packages.diff, so apt can update its copy of the index incrementally. 0 disables pdiffs.
+   */
+  @Parameter(defaultValue = "0", property = "apt-repo.pdiffHistory")
+  private int pdiffHistory;
+
+  /**
+   * Boolean option whether to also publish the index files under by-hash/&lt;algorithm&gt;/&lt;digest&gt;
+   * and to announce this with "Acquire-By-Hash: yes" in the Release file.
+   */
+  @Parameter(defaultValue = "false", property = "apt-repo.byHash")
+  private boolean byHash;
+
+  /**
+   * Time in minutes for which by-hash files that are no longer referenced by the Release file
+   * are kept.
+   */
+  @Parameter(defaultValue = "1440", property = "apt-repo.byHashRetention")
+  private long byHashRetention;
+
+  /**
+   * Boolean option whether to keep the computed package entries in a cache file inside repoDir,
+   * so unchanged deb files are not hashed and parsed again on the next run.
+   */
+  @Parameter(defaultValue = "true", property = "apt-repo.cache")
+  private boolean cache;
+
+  /**
+   * Boolean option whether to keep the control fields of the packages in a memory-mapped
+   * temporary file instead of the Java heap, for repositories with very many packages.
+   */
+  @Parameter(defaultValue = "false", property = "apt-repo.spill")
+  private boolean spill;
+
+  /**
+   * Boolean option whether to log the time, bytes and files of each phase (staging, hashing,
+   * decoding, rendering, compression, signing, ...) and the slowest deb files, and to write them
+   * to metricsFile.
+   */
+  @Parameter(defaultValue = "true", property = "apt-repo.metrics")
+  private boolean metrics;
+
+  /**
+   * The JSON report of the metrics, with the times of every deb file.
+   */
+  @Parameter(defaultValue = "${project.build.directory}/apt-repo-metrics.json", property = "apt-repo.metricsFile")
+  private File metricsFile;
+
   /**
    * Contains the full list of projects in the reactor.
    */
   @Parameter(defaultValue = "${reactorProjects}", required = true, readonly = true)
   private List<MavenProject> reactorProjects;
 
+  @Parameter(defaultValue = "${session}", required = true, readonly = true)
+  private MavenSession session;
+
   public List<MavenProject> getReactorProjects() {
     return reactorProjects;
   }
 
   public void execute() throws MojoExecutionException {
-    if (sign){
-      if (keyring == null || !keyring.exists()){
-        getLog().error("Signing requested, but no or invalid keyrring supplied");
-        throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "keyring invalid or missing");
-      }
-      if (key == null){
-        getLog().error("Signing requested, but no key supplied");
-        throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "key is missing");
-      }
-      if (passphrase == null && passphraseFile == null){
-        getLog().error("Signing requested, but no passphrase or passphrase file supplied");
-        throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "passphrase or passphrase file must be specified");
-      }
-      if (passphraseFile != null && ! passphraseFile.exists()){
-        getLog().error("Signing requested, passphrase file does not exist: " + passphraseFile.getAbsolutePath());
-        throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "passphrase file does not exist " + passphraseFile.getAbsolutePath());
+    RepoBuilder builder = new RepoBuilder(repoDir, getLog());
+    builder.setType(type);
+    builder.setLayout(layout);
+    builder.setSuite(suite);
+    builder.setCodename(codename);
+    builder.setComponent(component);
+    builder.setArchitectures(architectures);
+    builder.setCompressions(getCompressions());
+    builder.setEgressOptimized(egressOptimized);
+    builder.setCompressionThreads(compressionThreads);
+    builder.setThreads(threads);
+    builder.setCache(cache);
+    builder.setContents(contents);
+    builder.setPdiffHistory(pdiffHistory);
+    builder.setByHash(byHash);
+    builder.setByHashRetention(byHashRetention);
+    builder.setDigest(digest);
+    builder.setSpill(spill);
+    if (sign) {
+      builder.setSigning(keyring, key, passphrase, passphraseFile);
+    }
+    try {
+      builder.setStaging(StagingMode.valueOf(staging.toUpperCase(Locale.ENGLISH)));
+    } catch (IllegalArgumentException e) {
+      throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "unknown staging mode " + staging);
+    }
+    if (aggregateAtEnd) {
+      if (!RepoParticipants.isStarted(session)) {
+        throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "aggregateAtEnd requires "
+            + "the plugin to be declared with <extensions>true</extensions>");
       }
+      // report configuration errors now rather than at the end of the build
+      builder.validate();
+      RepoParticipants.defer(session, getCanonicalPath(repoDir), new DeferredRepo(session,
+          builder, type, metrics ? metricsFile : null, getLog()), true);
+      getLog().info("deb files of the reactor are aggregated into " + repoDir
+          + " at the end of the build");
+      return;
     }
-    getLog().info("repo dir: " + repoDir.getPath());
-    if (!repoDir.exists()) {
-      repoDir.mkdirs();
+    Collection<Artifact> artifacts = Utils.getAllArtifacts4Type(project, type, aggregate);
+    // Collection<Artifact> artifacts =
+    // Utils.getDebArtifacts(project, reactorProjects, type, aggregate, getLog());
+    List<File> debs = new ArrayList<File>(artifacts.size());
+    for (Artifact artifact : artifacts) {
+      getLog().debug("Artifact: " + artifact);
+      getLog().debug("Artifact type: " + artifact.getType());
+      if (artifact.getFile() == null) {
+        throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "artifact " + artifact
+            + " has no file, was it packaged?");
+      }
+      debs.add(artifact.getFile());
     }
+    RepoLock lock = RepoLock.acquire(repoDir);
     try {
-      Collection<Artifact> artifacts = Utils.getAllArtifacts4Type(project, type, aggregate);
-      // Collection<Artifact> artifacts =
-      // Utils.getDebArtifacts(project, reactorProjects, type, aggregate, getLog());
-      for (Artifact artifact : artifacts) {
-        getLog().debug("Artifact: " + artifact);
-        getLog().debug("Artifact type: " + artifact.getType());
-        FileUtils.copyFileToDirectory(artifact.getFile(), repoDir);
-      }
-    } catch (IOException e) {
+      builder.stageAll(debs);
+    } catch (MojoExecutionException e) {
       getLog().error(FAILED_TO_CREATE_APT_REPO, e);
       throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO, e);
+    } finally {
+      lock.release();
     }
-    File[] files = repoDir.listFiles(new FileFilter() {
-      private String ext = "." + type;
-
-      public boolean accept(File pathname) {
-        if (pathname.getName().endsWith(ext)) {
-          return true;
-        }
-        return false;
-      }
-    });
-    Packages packages = new Packages();
-    for (int i = 0; i < files.length; i++) {
-      File file = files[i];
-      PackageEntry packageEntry = new PackageEntry();
-      packageEntry.setSize(file.length());
-      packageEntry.setSha1(Utils.getDigest("SHA-1", file));
-      packageEntry.setSha256(Utils.getDigest("SHA-256", file));
-      packageEntry.setSha512(Utils.getDigest("SHA-512", file));
-      packageEntry.setMd5sum(Utils.getDigest("MD5", file));
-      // String fileName = debFilesDir.getName() + File.separator + file.getName();
-      String fileName = file.getName();
-      packageEntry.setFilename(fileName);
-      getLog().info("found deb: " + fileName);
-      try {
-        ArchiveInputStream control_tgz;
-        ArArchiveEntry entry;
-        TarArchiveEntry control_entry;
-        ArchiveInputStream debStream =
-            new ArchiveStreamFactory().createArchiveInputStream("ar", new FileInputStream(file));
-        while ((entry = (ArArchiveEntry) debStream.getNextEntry()) != null) {
-          if (entry.getName().equals("control.tar.gz")) {
-            ControlHandler controlHandler = new ControlHandler();
-            GZIPInputStream gzipInputStream = new GZIPInputStream(debStream);
-            control_tgz =
-                new ArchiveStreamFactory().createArchiveInputStream("tar", gzipInputStream);
-            while ((control_entry = (TarArchiveEntry) control_tgz.getNextEntry()) != null) {
-              getLog().debug("control entry: " + control_entry.getName());
-              if (control_entry.getName().equals(CONTROL_FILE_NAME)) {
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                IOUtils.copy(control_tgz, outputStream);
-                String content_string = outputStream.toString("UTF-8");
-                outputStream.close();
-                controlHandler.setControlContent(content_string);
-                getLog().debug("control cont: " + outputStream.toString("utf-8"));
-                break;
-              }
-            }
-            control_tgz.close();
-            if (controlHandler.hasControlContent()) {
-              controlHandler.handle(packageEntry);
-            } else {
-              throw new MojoExecutionException("no control content found for: " + file.getName());
-            }
-            break;
-          }
-        }
-        debStream.close();
-        packages.addPackageEntry(packageEntry);
-        if (attach) {
-          getLog().info("Attaching file: " + file);
-          projectHelper.attachArtifact(project, type, file.getName(), file);
-          // projectHelper.attachArtifact(project, file, fileName);
-        }
-      } catch (MojoExecutionException e) {
-        String msg = FAILED_TO_CREATE_APT_REPO + " " + file.getName();
-        getLog().error(msg, e);
-        throw new MojoExecutionException(msg, e);
-      } catch (FileNotFoundException e) {
-        String msg = FAILED_TO_CREATE_APT_REPO + " " + file.getName();
-        getLog().error(msg, e);
-        throw new MojoExecutionException(msg, e);
-      } catch (ArchiveException e) {
-        String msg = FAILED_TO_CREATE_APT_REPO + " " + file.getName();
-        getLog().error(msg, e);
-        throw new MojoExecutionException(msg, e);
-      } catch (IOException e) {
-        String msg = FAILED_TO_CREATE_APT_REPO + " " + file.getName();
-        getLog().error(msg, e);
-        throw new MojoExecutionException(msg, e);
+    if (RepoParticipants.isStarted(session)) {
+      // report configuration errors now rather than at the end of the build
+      builder.validate();
+      RepoParticipants.defer(session, getCanonicalPath(repoDir), new DeferredRepo(session,
+          builder, null, metrics ? metricsFile : null, getLog()), false);
+      getLog().info("deb files staged, " + repoDir + " is indexed at the end of the build");
+      return;
+    }
+    List<File> files = builder.build();
+    if (metrics) {
+      reportMetrics(builder, metricsFile, getLog());
+    }
+    if (attach) {
+      for (File file : files) {
+        getLog().info("Attaching file: " + file);
+        projectHelper.attachArtifact(project, type, file.getName(), file);
+        // projectHelper.attachArtifact(project, file, fileName);
       }
     }
+    // if (attach) {
+    // getLog().info("Attaching created apt-repo files: " + releaseFile + ", " + packagesFile);
+    // projectHelper.attachArtifact(project, "gz", "Packages", packagesFile);
+    // projectHelper.attachArtifact(project, "Release-File", "Release", packagesFile);
+    // }
+  }
+
+  /**
+   * Logs the metrics of builder and writes them to metricsFile.
+   */
+  static void reportMetrics(RepoBuilder builder, File metricsFile, Log log) {
+    builder.getMetrics().log(log);
+    try {
+      builder.getMetrics().writeJson(metricsFile);
+    } catch (IOException e) {
+      log.warn("could not write " + metricsFile + ": " + e);
+    }
+  }
+
+  private static String getCanonicalPath(File file) throws MojoExecutionException {
     try {
-      Release release = new Release();
-
-      File packagesFile = new File(repoDir, PACKAGES);
-      BufferedWriter packagesWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
-          packagesFile)));
-      packagesWriter.write(packages.toString());
-      packagesWriter.close();
-      DefaultHashes hashes = Utils.getDefaultDigests(packagesFile);
-      ReleaseInfo pinfo = new ReleaseInfo(PACKAGES, packagesFile.length(), hashes);
-      release.addInfo(pinfo);
-
-      File packagesGzFile = new File(repoDir, PACKAGES_GZ);
-      BufferedWriter packagesGzWriter = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(
-          packagesGzFile))));
-      packagesGzWriter.write(packages.toString());
-      packagesGzWriter.close();
-      DefaultHashes gzHashes = Utils.getDefaultDigests(packagesGzFile);
-      ReleaseInfo gzPinfo = new ReleaseInfo(PACKAGES_GZ, packagesGzFile.length(), gzHashes);
-      release.addInfo(gzPinfo);
-
-      final File releaseFile = new File(repoDir, RELEASE);
-      FileUtils.fileWrite(releaseFile, release.toString());
-      if (sign){
-        if (passphraseFile != null){
-          getLog().debug("passphrase file will be used " + passphraseFile.getAbsolutePath());
-          BufferedReader pwReader = new BufferedReader(new FileReader(passphraseFile));
-          passphrase = pwReader.readLine();
-          pwReader.close();
-        }
-        final File inReleaseFile = new File(repoDir, INRELEASE);
-        final File releaseGpgFile = new File(repoDir, RELEASEGPG);
-        PGPSigner signer = new PGPSigner(new FileInputStream(keyring), key, passphrase, getDigestCode(digest));
-        signer.clearSignDetached(release.toString(), new FileOutputStream(releaseGpgFile));
-        signer.clearSign(release.toString(), new FileOutputStream(inReleaseFile));
-      }
-      // if (attach) {
-      // getLog().info("Attaching created apt-repo files: " + releaseFile + ", " + packagesFile);
-      // projectHelper.attachArtifact(project, "gz", "Packages", packagesFile);
-      // projectHelper.attachArtifact(project, "Release-File", "Release", packagesFile);
-      // }
+      return file.getCanonicalPath();
     } catch (IOException e) {
-      throw new MojoExecutionException("writing files failed", e);
-    } catch (PGPException e) {
-      throw new MojoExecutionException("gpg signing failed",e);
-    } catch (GeneralSecurityException e) {
-      throw new MojoExecutionException("generating release failed",e);
+      throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "invalid path " + file, e);
     }
   }
-  static int getDigestCode(String digestName) throws MojoExecutionException {
-    if ("SHA1".equals(digestName)) {
-      return HashAlgorithmTags.SHA1;
-    } else if ("MD2".equals(digestName)) {
-      return HashAlgorithmTags.MD2;
-    } else if ("MD5".equals(digestName)) {
-      return HashAlgorithmTags.MD5;
-    } else if ("RIPEMD160".equals(digestName)) {
-      return HashAlgorithmTags.RIPEMD160;
-    } else if ("SHA256".equals(digestName)) {
-      return HashAlgorithmTags.SHA256;
-    } else if ("SHA384".equals(digestName)) {
-      return HashAlgorithmTags.SHA384;
-    } else if ("SHA512".equals(digestName)) {
-      return HashAlgorithmTags.SHA512;
-    } else if ("SHA224".equals(digestName)) {
-      return HashAlgorithmTags.SHA224;
-    } else {
-      throw new MojoExecutionException("unknown hash algorithm tag in digestName: " + digestName);
+
+  private Set<Compression> getCompressions() throws MojoExecutionException {
+    Set<Compression> result = EnumSet.noneOf(Compression.class);
+    if (compressions != null) {
+      for (String name : compressions) {
+        result.add(Compression.fromName(name));
+      }
     }
+    return result;
   }
 
 }
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.m1theo.apt.repo.utils.RepoLock;
+import org.m1theo.apt.repo.utils.Utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * A repository to be written at the end of the build by the
+ * {@link AptRepoLifecycleParticipant}: the configured {@link RepoBuilder} of the last execution
+ * using its directory, and whether the deb files of the whole reactor are aggregated into it
+ * first (aggregateAtEnd).
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+class DeferredRepo implements Callable<Void> {
+  private final MavenSession session;
+  private final RepoBuilder builder;
+  private final String aggregateType;
+  private final File metricsFile;
+  private final Log log;
+
+  /**
+   * @param session the session of the build
+   * @param builder the configured builder
+   * @param aggregateType the type of the artifacts to aggregate from the reactor, null to only
+   *        index the deb files staged by the executions
+   * @param metricsFile the file to write the metrics to, null to not report metrics
+   * @param log the logger to use
+   */
+  DeferredRepo(MavenSession session, RepoBuilder builder, String aggregateType, File metricsFile,
+      Log log) {
+    this.session = session;
+    this.builder = builder;
+    this.aggregateType = aggregateType;
+    this.metricsFile = metricsFile;
+    this.log = log;
+  }
+
+  /**
+   * Aggregates the deb files of the reactor if requested and indexes the repository. If a project
+   * of the build failed, the deb files staged by the executions are indexed anyway, the reactor
+   * is not aggregated as its deb files may be missing.
+   *
+   * @throws MojoExecutionException
+   */
+  public Void call() throws MojoExecutionException {
+    File repoDir = builder.getRepoDir();
+    boolean buildFailed = session.getResult().hasExceptions();
+    if (aggregateType != null) {
+      if (buildFailed) {
+        log.warn("the build failed, not aggregating the deb files of the reactor into "
+            + repoDir);
+        return null;
+      }
+      List<MavenProject> projects = session.getProjects();
+      Collection<Artifact> artifacts = Utils.getReactorArtifacts4Type(projects, aggregateType);
+      log.info("aggregating " + artifacts.size() + " deb files of " + projects.size()
+          + " projects into " + repoDir);
+      List<File> debs = new ArrayList<File>(artifacts.size());
+      for (Artifact artifact : artifacts) {
+        if (artifact.getFile() == null) {
+          throw new MojoExecutionException("artifact " + artifact
+              + " has no file, was it packaged?");
+        }
+        debs.add(artifact.getFile());
+      }
+      RepoLock lock = RepoLock.acquire(repoDir);
+      try {
+        builder.stageAll(debs);
+      } finally {
+        lock.release();
+      }
+    } else if (buildFailed) {
+      log.warn("the build failed, indexing the deb files staged into " + repoDir + " so far");
+    }
+    builder.build();
+    if (metricsFile != null) {
+      AptRepoMojo.reportMetrics(builder, metricsFile, log);
+    }
+    return null;
+  }
+
+}
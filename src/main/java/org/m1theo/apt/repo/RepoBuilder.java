@@ -0,0 +1,967 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.openpgp.PGPException;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.StringUtils;
+import org.m1theo.apt.repo.packages.ContentsWriter;
+import org.m1theo.apt.repo.packages.PackageCache;
+import org.m1theo.apt.repo.packages.PackageEntry;
+import org.m1theo.apt.repo.packages.PackageIndexer;
+import org.m1theo.apt.repo.packages.Packages;
+import org.m1theo.apt.repo.packages.PackagesDiff;
+import org.m1theo.apt.repo.packages.PackagesWriter;
+import org.m1theo.apt.repo.packages.PoolLayout;
+import org.m1theo.apt.repo.release.ByHash;
+import org.m1theo.apt.repo.release.Release;
+import org.m1theo.apt.repo.release.ReleaseInfo;
+import org.m1theo.apt.repo.signing.PGPSigner;
+import org.m1theo.apt.repo.signing.SignerCache;
+import org.m1theo.apt.repo.utils.Compression;
+import org.m1theo.apt.repo.utils.DuplicateFilter;
+import org.m1theo.apt.repo.utils.Hashes;
+import org.m1theo.apt.repo.utils.Metrics;
+import org.m1theo.apt.repo.utils.RepoLock;
+import org.m1theo.apt.repo.utils.SpillStore;
+import org.m1theo.apt.repo.utils.Stager;
+import org.m1theo.apt.repo.utils.StagingMode;
+import org.m1theo.apt.repo.utils.Utils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates or updates an apt repository in a directory. This is the pipeline behind the apt-repo
+ * goal, usable without Maven from {@link AptRepoCli} or any other JVM program:
+ *
+ * <pre>
+ * RepoBuilder builder = new RepoBuilder(repoDir, new SystemStreamLog());
+ * builder.setLayout(RepoBuilder.LAYOUT_DISTS);
+ * builder.stage(debFile);
+ * builder.build();
+ * </pre>
+ *
+ * If neither the deb files nor the options changed since the last build, {@link #build()}
+ * returns without reading any deb file or rewriting any index.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class RepoBuilder {
+  public static final String LAYOUT_FLAT = "flat";
+  public static final String LAYOUT_DISTS = "dists";
+  public static final String STATE_FILE_NAME = ".apt-repo-state";
+  private static final String RELEASE = "Release";
+  private static final String RELEASEGPG = "Release.gpg";
+  private static final String INRELEASE = "InRelease";
+  private static final String FAILED_TO_CREATE_APT_REPO = "Failed to create apt-repo: ";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final File repoDir;
+  private final Log log;
+  private String type = "deb";
+  private String layout = LAYOUT_FLAT;
+  private String suite = "stable";
+  private String codename;
+  private String component = "main";
+  private String[] architectures;
+  private Set<Compression> compressions = EnumSet.of(Compression.GZIP);
+  private boolean egressOptimized;
+  private int compressionThreads = 1;
+  private int threads = 1;
+  private boolean cache = true;
+  private boolean contents;
+  private int pdiffHistory;
+  private boolean byHash;
+  private long byHashRetention = 1440;
+  private StagingMode staging = StagingMode.COPY;
+  private boolean force;
+  private boolean spill;
+  private SpillStore spillStore;
+  private boolean sign;
+  private File keyring;
+  private String key;
+  private String passphrase;
+  private File passphraseFile;
+  private String digest = "SHA256";
+  private Stager stager;
+  private PackageCache packageCache;
+  private boolean cacheSpilled;
+  private final Metrics metrics = new Metrics();
+
+  /**
+   * @param repoDir the directory of the repository
+   * @param log the logger to use
+   */
+  public RepoBuilder(File repoDir, Log log) {
+    this.repoDir = repoDir;
+    this.log = log;
+  }
+
+  public File getRepoDir() {
+    return repoDir;
+  }
+
+  /**
+   * Returns the directory the Release file is written to.
+   *
+   * @return repoDir for the flat layout, dists/&lt;suite&gt; for the dists layout.
+   */
+  public File getReleaseDir() {
+    if (LAYOUT_DISTS.equals(layout)) {
+      return new File(repoDir, PoolLayout.DISTS + "/" + suite);
+    }
+    return repoDir;
+  }
+
+  /**
+   * @param type file type (extension) of the deb files, default deb
+   */
+  public void setType(String type) {
+    this.type = type;
+  }
+
+  /**
+   * @param layout {@link #LAYOUT_FLAT} (default) or {@link #LAYOUT_DISTS}
+   */
+  public void setLayout(String layout) {
+    this.layout = layout;
+  }
+
+  /**
+   * @param suite the suite of the dists layout, default stable
+   */
+  public void setSuite(String suite) {
+    this.suite = suite;
+  }
+
+  /**
+   * @param codename the codename of the suite of the dists layout
+   */
+  public void setCodename(String codename) {
+    this.codename = codename;
+  }
+
+  /**
+   * @param component the component of the dists layout, default main. All packages are placed
+   *        into this one component.
+   */
+  public void setComponent(String component) {
+    this.component = component;
+  }
+
+  /**
+   * @param architectures the architectures of the dists layout, null to use the architectures of
+   *        the packages
+   */
+  public void setArchitectures(String[] architectures) {
+    this.architectures = architectures;
+  }
+
+  /**
+   * @param compressions the compressed variants of the Packages file, default gzip
+   */
+  public void setCompressions(Collection<Compression> compressions) {
+    this.compressions = EnumSet.noneOf(Compression.class);
+    this.compressions.addAll(compressions);
+  }
+
+  /**
+   * @param egressOptimized true to add xz and use the strongest compression levels
+   */
+  public void setEgressOptimized(boolean egressOptimized) {
+    this.egressOptimized = egressOptimized;
+  }
+
+  /**
+   * @param compressionThreads number of threads to compress index files, 0 for one per processor
+   */
+  public void setCompressionThreads(int compressionThreads) {
+    this.compressionThreads = compressionThreads;
+  }
+
+  /**
+   * @param threads number of threads to index deb files, 0 for one per processor
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * @param cache false to disable the {@link PackageCache}
+   */
+  public void setCache(boolean cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * @param contents true to create Contents-&lt;arch&gt;.gz files
+   */
+  public void setContents(boolean contents) {
+    this.contents = contents;
+  }
+
+  /**
+   * @param pdiffHistory number of pdiffs to keep, 0 disables pdiffs
+   */
+  public void setPdiffHistory(int pdiffHistory) {
+    this.pdiffHistory = pdiffHistory;
+  }
+
+  /**
+   * @param byHash true to publish the index files under by-hash
+   */
+  public void setByHash(boolean byHash) {
+    this.byHash = byHash;
+  }
+
+  /**
+   * @param byHashRetention minutes to keep superseded by-hash files
+   */
+  public void setByHashRetention(long byHashRetention) {
+    this.byHashRetention = byHashRetention;
+  }
+
+  /**
+   * @param staging how {@link #stage(File)} places deb files into the repository
+   */
+  public void setStaging(StagingMode staging) {
+    this.staging = staging;
+    this.stager = null;
+  }
+
+  /**
+   * @param force true to rebuild the indices even if nothing changed
+   */
+  public void setForce(boolean force) {
+    this.force = force;
+  }
+
+  /**
+   * Enables signing of the Release file. passphrase or passphraseFile must be given.
+   *
+   * @param keyring the keyring file
+   * @param key the id of the key to use
+   * @param passphrase the passphrase of the key or null
+   * @param passphraseFile a file with the passphrase in its first line or null
+   */
+  public void setSigning(File keyring, String key, String passphrase, File passphraseFile) {
+    this.sign = true;
+    this.keyring = keyring;
+    this.key = key;
+    this.passphrase = passphrase;
+    this.passphraseFile = passphraseFile;
+  }
+
+  /**
+   * @param digest the digest algorithm for signing, see {@link HashAlgorithmTags}
+   */
+  public void setDigest(String digest) {
+    this.digest = digest;
+  }
+
+  /**
+   * Returns the time spent in each phase and on each deb file since this builder was created.
+   *
+   * @return the {@link Metrics} of this builder.
+   */
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @param spill true to keep the control fields of the packages in a memory-mapped temporary
+   *        file instead of the heap, for very large repositories
+   */
+  public void setSpill(boolean spill) {
+    this.spill = spill;
+  }
+
+  /**
+   * Places a deb file into the repository, into repoDir or its pool directory depending on the
+   * layout.
+   *
+   * @param deb the deb file
+   * @throws MojoExecutionException
+   */
+  public void stage(File deb) throws MojoExecutionException {
+    stage(deb, getTargetDir(deb));
+  }
+
+  private void stage(File deb, File targetDir) throws MojoExecutionException {
+    if (stager == null) {
+      stager = new Stager(staging, log);
+    }
+    if (!targetDir.exists() && !targetDir.mkdirs()) {
+      throw new MojoExecutionException("could not create directory " + targetDir);
+    }
+    long start = Metrics.now();
+    stager.stage(deb, targetDir);
+    long bytes = staging == StagingMode.COPY ? deb.length() : 0;
+    metrics.record(Metrics.STAGING, start, bytes, bytes, 1);
+  }
+
+  /**
+   * Places deb files into the repository like {@link #stage(File)}, each content only once: files
+   * with the same content as an earlier one, e.g. the same deb attached by several modules, or as
+   * a deb file already in the repository under another name, e.g. staged by another module, are
+   * skipped. The hashes of the deb files in the repository are taken from the cache if possible,
+   * and only computed for files with the size of a deb file to stage.
+   *
+   * @param debs the deb files
+   * @throws MojoExecutionException
+   */
+  public void stageAll(List<File> debs) throws MojoExecutionException {
+    Map<Long, List<File>> staged = getStagedFilesBySize();
+    Map<File, String> hashes = new HashMap<File, String>();
+    int skipped = 0;
+    for (File deb : new DuplicateFilter(metrics, log).filter(debs)) {
+      File targetDir = getTargetDir(deb);
+      File target = new File(targetDir, deb.getName()).getAbsoluteFile();
+      File original = findStaged(deb, target, staged, hashes);
+      if (original != null) {
+        log.debug("skipping " + deb + ", same content as " + original);
+        skipped++;
+        continue;
+      }
+      stage(deb, targetDir);
+      // the hash of a replaced file is outdated
+      hashes.remove(target);
+    }
+    if (skipped > 0) {
+      log.info("skipped " + skipped + " files with the same content as files in " + repoDir);
+    }
+  }
+
+  /**
+   * Returns the deb files in the repository by their size, without moving dropped files to the
+   * pool like {@link #listFiles()}.
+   */
+  private Map<Long, List<File>> getStagedFilesBySize() {
+    List<File> files = PoolLayout.listFiles(repoDir, "." + type);
+    Map<Long, List<File>> result = new HashMap<Long, List<File>>();
+    for (File file : files) {
+      List<File> sameSize = result.get(file.length());
+      if (sameSize == null) {
+        sameSize = new ArrayList<File>(1);
+        result.put(file.length(), sameSize);
+      }
+      sameSize.add(file.getAbsoluteFile());
+    }
+    return result;
+  }
+
+  /**
+   * Returns a deb file in the repository with the content of deb, other than deb itself and
+   * target, the file deb is staged to, or null.
+   */
+  private File findStaged(File deb, File target, Map<Long, List<File>> staged,
+      Map<File, String> hashes) throws MojoExecutionException {
+    List<File> sameSize = staged.get(deb.length());
+    if (sameSize == null) {
+      return null;
+    }
+    String hash = null;
+    for (File file : sameSize) {
+      if (file.equals(target) || isSameFile(file, deb)) {
+        continue;
+      }
+      if (hash == null) {
+        hash = getSha256(deb, null);
+      }
+      String stagedHash = hashes.get(file);
+      if (stagedHash == null) {
+        stagedHash = getSha256(file, getPackageCache());
+        hashes.put(file, stagedHash);
+      }
+      if (hash.equals(stagedHash)) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the SHA256 of a deb file, from cache if it has an entry for file.
+   */
+  private String getSha256(File file, PackageCache cache) throws MojoExecutionException {
+    PackageEntry entry = cache != null ? cache.get(file) : null;
+    if (entry != null && entry.getSha256() != null) {
+      return entry.getSha256();
+    }
+    long start = Metrics.now();
+    String hash = Utils.getDigest(Hashes.SHA256.toString(), file);
+    metrics.record(Metrics.DEDUPLICATION, start, file.length(), 0, 1);
+    return hash;
+  }
+
+  private static boolean isSameFile(File a, File b) throws MojoExecutionException {
+    try {
+      return Files.isSameFile(a.toPath(), b.toPath());
+    } catch (IOException e) {
+      throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "could not compare " + a
+          + " and " + b, e);
+    }
+  }
+
+  /**
+   * Indexes all deb files of the repository and writes the Packages, Contents and Release files,
+   * holding the {@link RepoLock} of repoDir.
+   *
+   * @return the deb files of the repository.
+   * @throws MojoExecutionException
+   */
+  public List<File> build() throws MojoExecutionException {
+    validate();
+    log.info("repo dir: " + repoDir.getPath());
+    RepoLock lock = RepoLock.acquire(repoDir);
+    try {
+      long start = Metrics.now();
+      List<File> files = listFiles();
+      metrics.record(Metrics.LISTING, start, 0, 0, files.size());
+      if (!force && isUpToDate(files)) {
+        log.info("repository is up to date");
+        return files;
+      }
+      PackageIndexer indexer = createIndexer();
+      List<PackageEntry> entries = indexer.indexAll(files, threads);
+      Map<String, String[]> contentsLists = null;
+      if (contents) {
+        List<String[]> lists = indexer.listContentsAll(files, threads);
+        contentsLists = new HashMap<String, String[]>();
+        for (int i = 0; i < entries.size(); i++) {
+          contentsLists.put(entries.get(i).getFilename(), lists.get(i));
+        }
+      }
+      saveCache(files);
+      write(files, entries, contentsLists);
+      return files;
+    } finally {
+      closeSpillStore();
+      lock.release();
+    }
+  }
+
+  /**
+   * Returns true if the Release file, and when signing its signatures, exist and neither the deb
+   * files nor the options changed since the last {@link #write(List, List, Map)}.
+   */
+  boolean isUpToDate(List<File> files) throws MojoExecutionException {
+    File stateFile = new File(repoDir, STATE_FILE_NAME);
+    File releaseDir = getReleaseDir();
+    if (!new File(releaseDir, RELEASE).exists() || !stateFile.exists()) {
+      return false;
+    }
+    if (sign && (!new File(releaseDir, INRELEASE).exists()
+        || !new File(releaseDir, RELEASEGPG).exists())) {
+      return false;
+    }
+    try {
+      return getState(files).equals(FileUtils.fileRead(stateFile, "UTF-8"));
+    } catch (IOException e) {
+      log.debug("could not read " + stateFile + ": " + e);
+      return false;
+    }
+  }
+
+  /**
+   * Lets the next {@link #createIndexer()} start a new spill store and returns the current one.
+   * The cache is dropped as its entries may be spilled to the returned store, it is loaded again
+   * from repoDir when needed.
+   *
+   * @return the spill store, to be closed once the entries spilled to it are not used anymore, or
+   *         null if there is none.
+   */
+  SpillStore detachSpillStore() {
+    SpillStore store = spillStore;
+    if (store != null) {
+      spillStore = null;
+      packageCache = null;
+      cacheSpilled = false;
+    }
+    return store;
+  }
+
+  /**
+   * Closes the spill store, the entries spilled to it cannot be used anymore.
+   */
+  void closeSpillStore() {
+    SpillStore store = detachSpillStore();
+    if (store != null) {
+      try {
+        store.close();
+      } catch (IOException e) {
+        log.debug("closing spill store failed: " + e);
+      }
+    }
+  }
+
+  /**
+   * @return the bytes stored in the spill store, including replaced entries, 0 if there is none.
+   */
+  long getSpillSize() {
+    return spillStore != null ? spillStore.getSize() : 0;
+  }
+
+  /**
+   * Creates an indexer for the deb files of the repository, using the cache if enabled.
+   */
+  PackageIndexer createIndexer() {
+    PackageIndexer indexer = new PackageIndexer(log);
+    indexer.setBaseDir(repoDir);
+    indexer.setMetrics(metrics);
+    if (spill && spillStore == null) {
+      try {
+        spillStore = new SpillStore();
+      } catch (IOException e) {
+        log.warn("keeping all packages on the heap, could not create spill file: " + e);
+      }
+    }
+    indexer.setSpillStore(spillStore);
+    if (cache) {
+      getPackageCache();
+      if (spillStore != null && !cacheSpilled) {
+        try {
+          packageCache.spill(spillStore);
+        } catch (IOException e) {
+          log.warn("could not spill cached packages: " + e);
+        }
+        cacheSpilled = true;
+      }
+      indexer.setCache(packageCache);
+    }
+    return indexer;
+  }
+
+  /**
+   * Returns the {@link PackageCache} of the repository, loaded on first use, or null if the cache
+   * is disabled.
+   */
+  private PackageCache getPackageCache() {
+    if (cache && packageCache == null) {
+      long start = Metrics.now();
+      packageCache = PackageCache.load(repoDir, log);
+      File cacheFile = new File(repoDir, PackageCache.CACHE_FILE_NAME);
+      metrics.record(Metrics.CACHE, start, cacheFile.length(), 0, 1);
+    }
+    return packageCache;
+  }
+
+  /**
+   * Drops the cache entries of removed files and saves the cache.
+   */
+  void saveCache(List<File> files) {
+    if (packageCache != null) {
+      long start = Metrics.now();
+      packageCache.retain(files);
+      try {
+        packageCache.save();
+      } catch (IOException e) {
+        log.warn("could not save cache: " + e);
+      }
+      File cacheFile = new File(repoDir, PackageCache.CACHE_FILE_NAME);
+      metrics.record(Metrics.CACHE, start, 0, cacheFile.length(), 1);
+    }
+  }
+
+  /**
+   * Writes the indices and the Release file for the given deb files and their entries and
+   * records the state for {@link #isUpToDate(List)}.
+   *
+   * @param files the deb files, sorted
+   * @param entries the {@link PackageEntry} of each file
+   * @param contentsLists the contents of each package keyed by Filename, null for no Contents
+   * @throws MojoExecutionException
+   */
+  void write(List<File> files, List<PackageEntry> entries, Map<String, String[]> contentsLists)
+      throws MojoExecutionException {
+    reportConflicts(entries);
+    writeRelease(getReleaseDir(), entries, contentsLists);
+    try {
+      FileUtils.fileWrite(new File(repoDir, STATE_FILE_NAME), "UTF-8", getState(files));
+    } catch (IOException e) {
+      log.warn("could not save state: " + e);
+    }
+  }
+
+  /**
+   * Logs packages which are in the repository more than once with the same name, version and
+   * architecture: a warning if their content differs, as apt picks one of them at random, an info
+   * if it is the same.
+   */
+  private void reportConflicts(List<PackageEntry> entries) {
+    Map<String, PackageEntry> packages = new HashMap<String, PackageEntry>();
+    for (PackageEntry entry : entries) {
+      String id = entry.getPackageName() + " " + entry.getVersion() + " "
+          + entry.getArchitecture();
+      PackageEntry other = packages.get(id);
+      if (other == null) {
+        packages.put(id, entry);
+      } else if (!other.getSha256().equals(entry.getSha256())) {
+        log.warn("conflicting packages " + id + ": " + other.getFilename() + " and "
+            + entry.getFilename() + " differ in content");
+      } else {
+        log.info("duplicate package " + id + ": " + other.getFilename() + " and "
+            + entry.getFilename());
+      }
+    }
+  }
+
+  String getType() {
+    return type;
+  }
+
+  int getThreads() {
+    return threads;
+  }
+
+  boolean isDists() {
+    return LAYOUT_DISTS.equals(layout);
+  }
+
+  boolean isContents() {
+    return contents;
+  }
+
+  /**
+   * Checks the configuration, call it before deb files are staged so an invalid configuration
+   * leaves repoDir untouched. {@link #build()} checks it again.
+   *
+   * @throws MojoExecutionException
+   */
+  public void validate() throws MojoExecutionException {
+    if (!LAYOUT_FLAT.equals(layout) && !LAYOUT_DISTS.equals(layout)) {
+      throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "unknown layout " + layout);
+    }
+    if (sign) {
+      if (keyring == null || !keyring.exists()) {
+        log.error("Signing requested, but no or invalid keyrring supplied");
+        throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "keyring invalid or missing");
+      }
+      if (key == null) {
+        log.error("Signing requested, but no key supplied");
+        throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "key is missing");
+      }
+      if (passphrase == null && passphraseFile == null) {
+        log.error("Signing requested, but no passphrase or passphrase file supplied");
+        throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO
+            + "passphrase or passphrase file must be specified");
+      }
+      if (passphraseFile != null && !passphraseFile.exists()) {
+        log.error("Signing requested, passphrase file does not exist: "
+            + passphraseFile.getAbsolutePath());
+        throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO
+            + "passphrase file does not exist " + passphraseFile.getAbsolutePath());
+      }
+    }
+  }
+
+  /**
+   * Returns the sorted deb files of the repository. With the dists layout, deb files dropped
+   * into repoDir are moved to the pool first.
+   */
+  List<File> listFiles() throws MojoExecutionException {
+    File[] rootFiles = repoDir.listFiles(new FileFilter() {
+      private String ext = "." + type;
+
+      public boolean accept(File pathname) {
+        if (pathname.getName().endsWith(ext)) {
+          return true;
+        }
+        return false;
+      }
+    });
+    Arrays.sort(rootFiles);
+    if (!LAYOUT_DISTS.equals(layout)) {
+      return Arrays.asList(rootFiles);
+    }
+    for (File file : rootFiles) {
+      File targetDir = getTargetDir(file);
+      targetDir.mkdirs();
+      try {
+        Files.move(file.toPath(), new File(targetDir, file.getName()).toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+        throw new MojoExecutionException(FAILED_TO_CREATE_APT_REPO + "could not move " + file
+            + " to the pool", e);
+      }
+    }
+    return PoolLayout.listFiles(new File(repoDir, PoolLayout.POOL), "." + type);
+  }
+
+  /**
+   * Returns a fingerprint of the deb files (path, size, modification time) and of all options
+   * affecting the generated files, including the signing key.
+   */
+  private String getState(List<File> files) throws MojoExecutionException {
+    StringBuilder options = new StringBuilder();
+    options.append(type).append(' ').append(layout).append(' ').append(suite).append(' ')
+        .append(codename).append(' ').append(component).append(' ')
+        .append(architectures == null ? null : Arrays.asList(architectures)).append(' ')
+        .append(getCompressions()).append(' ').append(egressOptimized).append(' ')
+        .append(contents).append(' ').append(pdiffHistory).append(' ').append(byHash)
+        .append(' ').append(sign).append(' ').append(keyring).append(' ').append(key)
+        .append(' ').append(digest);
+    if (sign && keyring != null) {
+      options.append(' ').append(keyring.length()).append(' ').append(keyring.lastModified());
+    }
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      for (File file : files) {
+        md.update((file.getPath() + '\0' + file.length() + '\0' + file.lastModified() + '\n')
+            .getBytes(UTF8));
+      }
+      return options + "\n" + new String(Hex.encodeHex(md.digest())) + "\n";
+    } catch (NoSuchAlgorithmException e) {
+      throw new MojoExecutionException("could not create digest", e);
+    }
+  }
+
+  private void writeRelease(File releaseDir, List<PackageEntry> entries,
+      Map<String, String[]> contentsLists) throws MojoExecutionException {
+    // Release, InRelease and Release.gpg are written to temporary files and then replaced,
+    // Release last, so clients never see a truncated Release file or one not matching its
+    // signatures
+    final File releaseFile = getTmpFile(releaseDir, RELEASE);
+    final File inReleaseFile = getTmpFile(releaseDir, INRELEASE);
+    final File releaseGpgFile = getTmpFile(releaseDir, RELEASEGPG);
+    try {
+      Release release = new Release();
+      if (LAYOUT_DISTS.equals(layout)) {
+        Set<String> archs;
+        if (architectures != null && architectures.length > 0) {
+          archs = new LinkedHashSet<String>(Arrays.asList(architectures));
+        } else {
+          archs = PoolLayout.getArchitectures(entries);
+        }
+        Map<String, Packages> packagesPerArch = PoolLayout.route(entries, archs, log);
+        for (Map.Entry<String, Packages> archPackages : packagesPerArch.entrySet()) {
+          writeIndex(releaseDir, component + "/binary-" + archPackages.getKey(),
+              archPackages.getValue(), release);
+        }
+        if (contentsLists != null) {
+          writeContents(releaseDir, component, packagesPerArch, contentsLists, release);
+        }
+        release.setSuite(suite);
+        release.setCodename(codename);
+        release.setArchitectures(StringUtils.join(archs.iterator(), " "));
+        release.setComponents(component);
+      } else {
+        Packages packages = new Packages();
+        for (PackageEntry entry : entries) {
+          packages.addPackageEntry(entry);
+        }
+        writeIndex(releaseDir, "", packages, release);
+        if (contentsLists != null) {
+          Map<String, Packages> packagesPerArch =
+              PoolLayout.route(entries, PoolLayout.getArchitectures(entries), log);
+          writeContents(releaseDir, "", packagesPerArch, contentsLists, release);
+        }
+      }
+      long start = Metrics.now();
+      if (byHash) {
+        ByHash byHashPublisher = new ByHash(byHashRetention * 60L * 1000L, log);
+        for (ReleaseInfo info : release.getInfos()) {
+          byHashPublisher.publish(releaseDir, info);
+        }
+        byHashPublisher.prune();
+        release.setAcquireByHash(true);
+      }
+
+      Writer releaseWriter =
+          new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(releaseFile)), UTF8);
+      try {
+        release.write(releaseWriter);
+      } finally {
+        releaseWriter.close();
+      }
+      metrics.record(Metrics.RELEASE, start, 0, releaseFile.length(), 1);
+      if (sign) {
+        start = Metrics.now();
+        String signingPassphrase = passphrase;
+        if (passphraseFile != null) {
+          log.debug("passphrase file will be used " + passphraseFile.getAbsolutePath());
+          BufferedReader pwReader = new BufferedReader(new FileReader(passphraseFile));
+          signingPassphrase = pwReader.readLine();
+          pwReader.close();
+        }
+        PGPSigner signer =
+            SignerCache.getSigner(keyring, key, signingPassphrase, getDigestCode(digest));
+        InputStream releaseInput = new FileInputStream(releaseFile);
+        try {
+          OutputStream inReleaseOutput =
+              new BufferedOutputStream(new FileOutputStream(inReleaseFile));
+          try {
+            OutputStream releaseGpgOutput =
+                new BufferedOutputStream(new FileOutputStream(releaseGpgFile));
+            try {
+              signer.sign(releaseInput, inReleaseOutput, releaseGpgOutput);
+            } finally {
+              releaseGpgOutput.close();
+            }
+          } finally {
+            inReleaseOutput.close();
+          }
+        } finally {
+          releaseInput.close();
+        }
+        metrics.record(Metrics.SIGNING, start, releaseFile.length(),
+            releaseGpgFile.length() + inReleaseFile.length(), 2);
+        replace(inReleaseFile, new File(releaseDir, INRELEASE));
+        replace(releaseGpgFile, new File(releaseDir, RELEASEGPG));
+      }
+      replace(releaseFile, new File(releaseDir, RELEASE));
+    } catch (IOException e) {
+      throw new MojoExecutionException("writing files failed", e);
+    } catch (PGPException e) {
+      throw new MojoExecutionException("gpg signing failed", e);
+    } catch (GeneralSecurityException e) {
+      throw new MojoExecutionException("generating release failed", e);
+    } finally {
+      // left over if writing failed
+      releaseFile.delete();
+      inReleaseFile.delete();
+      releaseGpgFile.delete();
+    }
+  }
+
+  /**
+   * Returns the hidden temporary file name is written to before it replaces the file name in dir.
+   */
+  private static File getTmpFile(File dir, String name) {
+    return new File(dir, "." + name + ".new");
+  }
+
+  private static void replace(File tmpFile, File file) throws IOException {
+    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Writes a Contents file per architecture into the directory path below releaseDir and adds
+   * them to release.
+   */
+  private void writeContents(File releaseDir, String path, Map<String, Packages> packagesPerArch,
+      Map<String, String[]> contentsLists, Release release) throws MojoExecutionException {
+    File dir = path.isEmpty() ? releaseDir : new File(releaseDir, path);
+    String prefix = path.isEmpty() ? "" : path + "/";
+    for (Map.Entry<String, Packages> archPackages : packagesPerArch.entrySet()) {
+      long start = Metrics.now();
+      ReleaseInfo info =
+          ContentsWriter.write(dir, archPackages.getKey(), archPackages.getValue(), contentsLists);
+      metrics.record(Metrics.CONTENTS_INDEX, start, 0, info.getSize(), 1);
+      info.setName(prefix + info.getName());
+      release.addInfo(info);
+    }
+  }
+
+  /**
+   * Returns the directory a deb file is placed in, with the dists layout the pool directory of
+   * the package named in its control file.
+   */
+  File getTargetDir(File file) throws MojoExecutionException {
+    if (LAYOUT_DISTS.equals(layout)) {
+      return new File(repoDir, PoolLayout.getPoolPath(component, file));
+    }
+    return repoDir;
+  }
+
+  /**
+   * Writes the Packages files (and pdiffs) for packages into the directory path below
+   * releaseDir and adds them to release.
+   */
+  private void writeIndex(File releaseDir, String path, Packages packages, Release release)
+      throws MojoExecutionException {
+    File dir = path.isEmpty() ? releaseDir : new File(releaseDir, path);
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new MojoExecutionException("could not create directory " + dir);
+    }
+    String prefix = path.isEmpty() ? "" : path + "/";
+    PackagesDiff packagesDiff = null;
+    if (pdiffHistory > 0) {
+      packagesDiff = new PackagesDiff(dir, pdiffHistory, log);
+      packagesDiff.prepare();
+    }
+    PackagesWriter packagesWriter =
+        new PackagesWriter(dir, getCompressions(), egressOptimized, compressionThreads);
+    packagesWriter.setMetrics(metrics);
+    packagesWriter.write(packages);
+    List<ReleaseInfo> packagesInfos = packagesWriter.finish();
+    if (packagesDiff != null) {
+      packagesInfos.add(packagesDiff.update(packagesInfos.get(0)));
+    }
+    for (ReleaseInfo info : packagesInfos) {
+      info.setName(prefix + info.getName());
+      release.addInfo(info);
+    }
+  }
+
+  private Set<Compression> getCompressions() {
+    Set<Compression> result = EnumSet.copyOf(compressions.isEmpty()
+        ? EnumSet.of(Compression.NONE) : compressions);
+    if (egressOptimized) {
+      result.add(Compression.XZ);
+    }
+    return result;
+  }
+
+  static int getDigestCode(String digestName) throws MojoExecutionException {
+    if ("SHA1".equals(digestName)) {
+      return HashAlgorithmTags.SHA1;
+    } else if ("MD2".equals(digestName)) {
+      return HashAlgorithmTags.MD2;
+    } else if ("MD5".equals(digestName)) {
+      return HashAlgorithmTags.MD5;
+    } else if ("RIPEMD160".equals(digestName)) {
+      return HashAlgorithmTags.RIPEMD160;
+    } else if ("SHA256".equals(digestName)) {
+      return HashAlgorithmTags.SHA256;
+    } else if ("SHA384".equals(digestName)) {
+      return HashAlgorithmTags.SHA384;
+    } else if ("SHA512".equals(digestName)) {
+      return HashAlgorithmTags.SHA512;
+    } else if ("SHA224".equals(digestName)) {
+      return HashAlgorithmTags.SHA224;
+    } else {
+      throw new MojoExecutionException("unknown hash algorithm tag in digestName: " + digestName);
+    }
+  }
+
+}
@@ -0,0 +1,431 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.m1theo.apt.repo.packages.PackageEntry;
+import org.m1theo.apt.repo.packages.PackageIndexer;
+import org.m1theo.apt.repo.packages.PoolLayout;
+import org.m1theo.apt.repo.utils.RepoLock;
+import org.m1theo.apt.repo.utils.SpillStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a repository up to date while deb files are added, replaced or removed. The package
+ * entries are kept in memory and the repository directory is watched with a
+ * {@link WatchService}. Bursts of events are collected until the directory is quiet for the
+ * debounce time, then only the touched deb files are indexed again and the indices and the
+ * Release file are written (and signed) once for the whole batch.
+ * <p>
+ * A deb file is only applied once its size and modification time did not change for at least
+ * the debounce time, files still being written (e.g. when a batch is cut short after the maximum
+ * delay) are deferred to a later batch.
+ * <p>
+ * With spill enabled the entries replaced by a batch stay in the spill store. Every rescan starts
+ * a new store, and once the store grew to more than twice its size after the last rescan (plus
+ * {@value #MIN_COMPACTION_SIZE} bytes) the repository is rescanned to reclaim the space.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class RepoDaemon {
+  static final long MIN_COMPACTION_SIZE = 64L * 1024 * 1024;
+
+  private final RepoBuilder builder;
+  private final Log log;
+  private final File repoDir;
+  private final String extension;
+  private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+  private final TreeMap<File, PackageEntry> entries = new TreeMap<File, PackageEntry>();
+  private final Map<File, String[]> contentsLists = new HashMap<File, String[]>();
+  /** {size, modification time, time first seen} of touched deb files not applied yet */
+  private final Map<File, long[]> pending = new HashMap<File, long[]>();
+  private long debounce = 500;
+  private long maxDelay = 5000;
+  private WatchService watcher;
+  private PackageIndexer indexer;
+  /** spill stores of the previous rescans, closed once no entry uses them */
+  private final List<SpillStore> retiredStores = new ArrayList<SpillStore>();
+  private long spilledAtReload;
+
+  /**
+   * @param builder the configured {@link RepoBuilder} of the repository
+   * @param log the logger to use
+   */
+  public RepoDaemon(RepoBuilder builder, Log log) {
+    this.builder = builder;
+    this.log = log;
+    this.repoDir = builder.getRepoDir();
+    this.extension = "." + builder.getType();
+  }
+
+  /**
+   * @param debounce milliseconds without events before a batch is applied, default 500
+   */
+  public void setDebounce(long debounce) {
+    this.debounce = debounce;
+  }
+
+  /**
+   * @param maxDelay milliseconds after which a batch is applied even if events keep coming,
+   *        default 5000
+   */
+  public void setMaxDelay(long maxDelay) {
+    this.maxDelay = maxDelay;
+  }
+
+  /**
+   * Brings the repository up to date and then keeps updating it until {@link #stop()} is called.
+   *
+   * @throws MojoExecutionException if the repository cannot be watched or the initial build
+   *         fails
+   */
+  public void run() throws MojoExecutionException {
+    builder.validate();
+    if (!repoDir.exists()) {
+      repoDir.mkdirs();
+    }
+    try {
+      synchronized (this) {
+        watcher = FileSystems.getDefault().newWatchService();
+      }
+      register(repoDir.toPath());
+      if (builder.isDists()) {
+        File pool = new File(repoDir, PoolLayout.POOL);
+        pool.mkdirs();
+        registerTree(pool.toPath(), null);
+      }
+    } catch (IOException e) {
+      stop();
+      throw new MojoExecutionException("could not watch " + repoDir, e);
+    }
+    boolean started = false;
+    try {
+      reload();
+      started = true;
+    } finally {
+      if (!started) {
+        stop();
+        closeSpillStores();
+      }
+    }
+    log.info("watching " + repoDir + " for changes");
+    try {
+      while (true) {
+        Set<Path> touched = new LinkedHashSet<Path>();
+        boolean overflow = false;
+        // deferred files are checked again after the debounce time even without new events
+        WatchKey key =
+            pending.isEmpty() ? watcher.take() : watcher.poll(debounce, TimeUnit.MILLISECONDS);
+        if (key != null) {
+          overflow = collect(key, touched);
+          long start = System.currentTimeMillis();
+          while ((key = watcher.poll(debounce, TimeUnit.MILLISECONDS)) != null) {
+            overflow |= collect(key, touched);
+            if (System.currentTimeMillis() - start >= maxDelay) {
+              break;
+            }
+          }
+        }
+        try {
+          if (overflow) {
+            log.info("too many changes, rescanning " + repoDir);
+            reload();
+          } else {
+            apply(touched);
+            if (builder.getSpillSize() > 2 * spilledAtReload + MIN_COMPACTION_SIZE) {
+              log.info("compacting the spill store, rescanning " + repoDir);
+              reload();
+            }
+          }
+        } catch (MojoExecutionException e) {
+          log.error("updating the repository failed", e);
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      log.info("stopped watching " + repoDir);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      stop();
+    } finally {
+      closeSpillStores();
+    }
+  }
+
+  /**
+   * Stops watching, {@link #run()} returns after the current batch.
+   */
+  public synchronized void stop() {
+    if (watcher != null) {
+      try {
+        watcher.close();
+      } catch (IOException e) {
+        log.debug("closing watch service failed: " + e);
+      }
+    }
+  }
+
+  /**
+   * Adds the paths of the events of key to touched and resets key.
+   *
+   * @return true if events were lost.
+   */
+  private boolean collect(WatchKey key, Set<Path> touched) {
+    boolean overflow = false;
+    Path dir = keys.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        overflow = true;
+      } else if (dir != null) {
+        Path path = dir.resolve((Path) event.context());
+        touched.add(path);
+        isStable(path.toFile());
+      }
+    }
+    if (!key.reset()) {
+      keys.remove(key);
+    }
+    return overflow;
+  }
+
+  /**
+   * Indexes all deb files again (mostly from the cache) and writes the indices if anything
+   * changed since the last run.
+   */
+  private void reload() throws MojoExecutionException {
+    // index into a new spill store, the current entries still use the old one
+    SpillStore retired = builder.detachSpillStore();
+    if (retired != null) {
+      retiredStores.add(retired);
+    }
+    indexer = builder.createIndexer();
+    List<File> files = builder.listFiles();
+    List<PackageEntry> list = indexer.indexAll(files, builder.getThreads());
+    List<String[]> lists = null;
+    if (builder.isContents()) {
+      lists = indexer.listContentsAll(files, builder.getThreads());
+    }
+    entries.clear();
+    contentsLists.clear();
+    for (int i = 0; i < files.size(); i++) {
+      entries.put(files.get(i), list.get(i));
+      if (lists != null) {
+        contentsLists.put(files.get(i), lists.get(i));
+      }
+    }
+    closeRetiredStores();
+    spilledAtReload = builder.getSpillSize();
+    if (!builder.isUpToDate(files)) {
+      write();
+    }
+  }
+
+  /**
+   * Records the size and modification time of a deb file and returns true if they did not change
+   * for at least the debounce time. Files that do not exist (any more) count as stable.
+   */
+  private boolean isStable(File file) {
+    if (!file.getName().endsWith(extension) || !file.isFile()) {
+      pending.remove(file);
+      return true;
+    }
+    long now = System.currentTimeMillis();
+    long size = file.length();
+    long lastModified = file.lastModified();
+    long[] seen = pending.get(file);
+    if (seen == null || seen[0] != size || seen[1] != lastModified) {
+      pending.put(file, new long[] {size, lastModified, now});
+      return false;
+    }
+    if (now - seen[2] < debounce) {
+      return false;
+    }
+    pending.remove(file);
+    return true;
+  }
+
+  /**
+   * Applies the add, replace and remove deltas for the touched paths and the deferred files.
+   */
+  private void apply(Set<Path> touched) throws MojoExecutionException {
+    long start = System.currentTimeMillis();
+    Path pool = new File(repoDir, PoolLayout.POOL).toPath();
+    Set<File> files = new LinkedHashSet<File>();
+    for (File file : pending.keySet()) {
+      touched.add(file.toPath());
+    }
+    for (Path path : touched) {
+      File file = path.toFile();
+      if (file.isDirectory()) {
+        if (!builder.isDists() || !path.startsWith(pool)) {
+          continue;
+        }
+        // a new directory of the pool, files may have been created before it was registered
+        try {
+          registerTree(path, files);
+        } catch (IOException e) {
+          log.warn("could not watch " + path + ": " + e);
+        }
+      } else if (file.getName().endsWith(extension)) {
+        files.add(file);
+      }
+    }
+    int changes = 0;
+    int deferred = 0;
+    for (File file : files) {
+      if (!isStable(file)) {
+        deferred++;
+        continue;
+      }
+      if (builder.isDists() && repoDir.equals(file.getParentFile())) {
+        file = moveToPool(file);
+        if (file == null) {
+          continue;
+        }
+      }
+      if (file.isFile()) {
+        PackageEntry entry;
+        try {
+          entry = indexer.index(file);
+        } catch (MojoExecutionException e) {
+          // most likely still being written, the next event will bring it back
+          log.warn("ignoring " + file + " for now: " + e.getMessage());
+          if (entries.remove(file) != null) {
+            contentsLists.remove(file);
+            changes++;
+          }
+          continue;
+        }
+        PackageEntry previous = entries.put(file, entry);
+        if (previous != entry) {
+          if (builder.isContents()) {
+            contentsLists.put(file, indexer.listContents(file));
+          }
+          log.info((previous != null ? "updated " : "added ") + file.getName());
+          changes++;
+        }
+      } else if (entries.remove(file) != null) {
+        contentsLists.remove(file);
+        log.info("removed " + file.getName());
+        changes++;
+      }
+    }
+    if (deferred > 0) {
+      log.debug("deferring " + deferred + " files still being written");
+    }
+    if (changes > 0) {
+      write();
+      log.info("applied " + changes + " changes in " + (System.currentTimeMillis() - start)
+          + " ms");
+    }
+  }
+
+  private void closeRetiredStores() {
+    for (SpillStore store : retiredStores) {
+      try {
+        store.close();
+      } catch (IOException e) {
+        log.debug("closing spill store failed: " + e);
+      }
+    }
+    retiredStores.clear();
+  }
+
+  private void closeSpillStores() {
+    closeRetiredStores();
+    builder.closeSpillStore();
+  }
+
+  private File moveToPool(File file) {
+    if (!file.isFile()) {
+      return null;
+    }
+    File targetDir;
+    try {
+      targetDir = builder.getTargetDir(file);
+    } catch (MojoExecutionException e) {
+      // most likely still being written, the next event will bring it back
+      log.warn("ignoring " + file + " for now: " + e.getMessage());
+      return null;
+    }
+    targetDir.mkdirs();
+    File target = new File(targetDir, file.getName());
+    try {
+      Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      return target;
+    } catch (IOException e) {
+      log.warn("could not move " + file + " to the pool: " + e);
+      return null;
+    }
+  }
+
+  private void write() throws MojoExecutionException {
+    List<File> files = new ArrayList<File>(entries.keySet());
+    Map<String, String[]> contents = null;
+    if (builder.isContents()) {
+      contents = new HashMap<String, String[]>();
+      for (Map.Entry<File, PackageEntry> entry : entries.entrySet()) {
+        contents.put(entry.getValue().getFilename(), contentsLists.get(entry.getKey()));
+      }
+    }
+    RepoLock lock = RepoLock.acquire(repoDir);
+    try {
+      builder.saveCache(files);
+      builder.write(files, new ArrayList<PackageEntry>(entries.values()), contents);
+    } finally {
+      lock.release();
+    }
+  }
+
+  private void register(Path dir) throws IOException {
+    WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+    keys.put(key, dir);
+  }
+
+  /**
+   * Registers dir and all directories below it, adding the deb files found to files if not null.
+   */
+  private void registerTree(Path dir, Set<File> files) throws IOException {
+    register(dir);
+    File[] children = dir.toFile().listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (child.isDirectory()) {
+        registerTree(child.toPath(), files);
+      } else if (files != null && child.getName().endsWith(extension)) {
+        files.add(child);
+      }
+    }
+  }
+
+}
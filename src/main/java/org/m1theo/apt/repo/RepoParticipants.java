@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo;
+
+import org.apache.maven.execution.MavenSession;
+import org.eclipse.aether.SessionData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * The repositories whose indexing the executions of a build deferred to the end of the build,
+ * one per repository directory, and the directories the deb files of the reactor are aggregated
+ * into (aggregateAtEnd). A build is registered by the {@link AptRepoLifecycleParticipant}
+ * when its projects are read; executions of builds that were not registered (the plugin is not
+ * declared as extension) index their repository themselves.
+ * <p>
+ * The repositories are kept in the data of the repository session as {@link Callable}s: the
+ * participant and the executions of the goal may be loaded by different class realms (the
+ * extension realm and e.g. the realm of a goal invoked from the command line), which share only
+ * the JDK and Maven classes. Thread-safe.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+class RepoParticipants {
+  private static final String REPOS = RepoParticipants.class.getName() + ".repos";
+  private static final String AGGREGATED = RepoParticipants.class.getName() + ".aggregated";
+
+  private RepoParticipants() {}
+
+  /**
+   * Registers a build, its repositories are written by {@link #finish(MavenSession)}.
+   *
+   * @param session the session of the build
+   */
+  static void start(MavenSession session) {
+    getData(session).set(REPOS,
+        Collections.synchronizedMap(new LinkedHashMap<String, Callable<?>>()));
+    getData(session).set(AGGREGATED, new HashSet<String>());
+  }
+
+  /**
+   * @param session the session of the build
+   * @return true if the build was registered and its repositories are written at its end.
+   */
+  static boolean isStarted(MavenSession session) {
+    return getRepos(session) != null;
+  }
+
+  /**
+   * Defers the indexing of a repository to the end of a registered build. Of several executions
+   * using the same directory the configuration of the last one is used, of the last one
+   * aggregating the reactor if there is one, as its deb files include those of the others.
+   *
+   * @param session the session of the build
+   * @param repoDir the canonical path of the repository directory
+   * @param repo the repository
+   * @param aggregate true if repo aggregates the deb files of the reactor
+   */
+  @SuppressWarnings("unchecked")
+  static void defer(MavenSession session, String repoDir, Callable<?> repo, boolean aggregate) {
+    Map<String, Callable<?>> repos = getRepos(session);
+    if (repos == null) {
+      throw new IllegalStateException("build not started");
+    }
+    synchronized (repos) {
+      Set<String> aggregated = (Set<String>) getData(session).get(AGGREGATED);
+      if (aggregate) {
+        aggregated.add(repoDir);
+      } else if (aggregated.contains(repoDir)) {
+        return;
+      }
+      repos.put(repoDir, repo);
+    }
+  }
+
+  /**
+   * Removes the repositories of a build.
+   *
+   * @param session the session of the build
+   * @return the repositories to write, in the order they were first deferred.
+   */
+  static List<Callable<?>> finish(MavenSession session) {
+    Map<String, Callable<?>> repos = getRepos(session);
+    if (repos == null) {
+      return Collections.emptyList();
+    }
+    getData(session).set(REPOS, null);
+    getData(session).set(AGGREGATED, null);
+    synchronized (repos) {
+      return new ArrayList<Callable<?>>(repos.values());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Callable<?>> getRepos(MavenSession session) {
+    Object repos = getData(session).get(REPOS);
+    return repos instanceof Map ? (Map<String, Callable<?>>) repos : null;
+  }
+
+  private static SessionData getData(MavenSession session) {
+    return session.getRepositorySession().getData();
+  }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.m1theo.apt.repo.server.RepoServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Goal which serves an apt repository over HTTP until the build is interrupted.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+@Mojo(name = "serve", requiresProject = false)
+public class ServeMojo extends AbstractMojo {
+
+  /**
+   * Location of the apt repository. Has no default, as the goal also runs without a project.
+   */
+  @Parameter(property = "apt-repo.repoDir", required = true)
+  private File repoDir;
+
+  /**
+   * The address to listen on, use 0.0.0.0 to accept connections from other hosts.
+   */
+  @Parameter(defaultValue = "localhost", property = "apt-repo.bind")
+  private String bind;
+
+  /**
+   * The port to listen on.
+   */
+  @Parameter(defaultValue = "8080", property = "apt-repo.port")
+  private int port;
+
+  public void execute() throws MojoExecutionException {
+    if (!repoDir.isDirectory()) {
+      throw new MojoExecutionException("repo dir does not exist: " + repoDir);
+    }
+    RepoServer server = new RepoServer(repoDir, getLog());
+    try {
+      server.bind(new InetSocketAddress(bind, port));
+      server.run();
+    } catch (IOException e) {
+      throw new MojoExecutionException("serving " + repoDir + " failed", e);
+    }
+  }
+
+}
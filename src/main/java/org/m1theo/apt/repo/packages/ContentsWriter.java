@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.packages;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.m1theo.apt.repo.release.ReleaseInfo;
+import org.m1theo.apt.repo.utils.Compression;
+import org.m1theo.apt.repo.utils.HashingOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Writes the Contents-&lt;arch&gt;.gz index used by apt-file. Each line holds a file name and the
+ * comma separated list of packages containing it, qualified with their section. The lines are
+ * sorted by file name.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class ContentsWriter {
+  public static final String CONTENTS = "Contents-";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Merges the contents lists of packages and writes Contents-&lt;arch&gt;.gz to dir.
+   *
+   * @param dir the directory for the file
+   * @param architecture the architecture of the packages
+   * @param packages the {@link Packages} to list
+   * @param contents the contents list of each package, keyed by its Filename
+   * @return the {@link ReleaseInfo} for the written file.
+   * @throws MojoExecutionException
+   */
+  public static ReleaseInfo write(File dir, String architecture, Packages packages,
+      Map<String, String[]> contents) throws MojoExecutionException {
+    Map<String, Set<String>> locations = new TreeMap<String, Set<String>>();
+    for (PackageEntry entry : packages.getPackageEntries()) {
+      String[] names = contents.get(entry.getFilename());
+      if (names == null) {
+        continue;
+      }
+      String location = getLocation(entry);
+      for (String name : names) {
+        Set<String> packageLocations = locations.get(name);
+        if (packageLocations == null) {
+          packageLocations = new TreeSet<String>();
+          locations.put(name, packageLocations);
+        }
+        packageLocations.add(location);
+      }
+    }
+    String name = CONTENTS + architecture + Compression.GZIP.getExtension();
+    File target = new File(dir, name);
+    File tmpFile = new File(dir, "." + name + ".new");
+    try {
+      HashingOutputStream file =
+          new HashingOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile),
+              BUFFER_SIZE));
+      OutputStream stream = Compression.GZIP.compress(file, false);
+      Writer writer = new OutputStreamWriter(stream, UTF8);
+      try {
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<String, Set<String>> fileLocations : locations.entrySet()) {
+          line.setLength(0);
+          line.append(fileLocations.getKey()).append('\t');
+          boolean first = true;
+          for (String location : fileLocations.getValue()) {
+            if (!first) {
+              line.append(',');
+            }
+            line.append(location);
+            first = false;
+          }
+          line.append('\n');
+          writer.write(line.toString());
+        }
+      } finally {
+        writer.close();
+      }
+      Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      return new ReleaseInfo(name, file.getLength(), file.getHashes());
+    } catch (IOException e) {
+      tmpFile.delete();
+      throw new MojoExecutionException("writing " + name + " failed", e);
+    }
+  }
+
+  private static String getLocation(PackageEntry entry) {
+    if (entry.getSection() == null || entry.getSection().isEmpty()) {
+      return entry.getPackageName();
+    }
+    return entry.getSection() + "/" + entry.getPackageName();
+  }
+
+}
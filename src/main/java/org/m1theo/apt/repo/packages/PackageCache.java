@@ -0,0 +1,277 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.packages;
+
+import org.apache.maven.plugin.logging.Log;
+import org.m1theo.apt.repo.utils.SpillStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent cache of {@link PackageEntry}s and contents lists, so unchanged deb files don't have
+ * to be hashed, parsed and scanned again. An entry is only used if path, size, modification time and file key (inode) of
+ * the deb file are still the same.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class PackageCache {
+  public static final String CACHE_FILE_NAME = ".apt-repo-cache";
+  private static final int FORMAT_VERSION = 4;
+
+  private final File cacheFile;
+  private final Log log;
+  private final Map<String, CacheRecord> records = new HashMap<String, CacheRecord>();
+  private boolean modified;
+
+  private PackageCache(File cacheFile, Log log) {
+    this.cacheFile = cacheFile;
+    this.log = log;
+  }
+
+  /**
+   * Loads the cache of the given repository. A missing, outdated or corrupt cache file results in
+   * an empty cache.
+   *
+   * @param repoDir the repository directory
+   * @param log the logger to use
+   * @return the {@link PackageCache}.
+   */
+  public static PackageCache load(File repoDir, Log log) {
+    PackageCache cache = new PackageCache(new File(repoDir, CACHE_FILE_NAME), log);
+    if (!cache.cacheFile.exists()) {
+      return cache;
+    }
+    try {
+      ObjectInputStream in =
+          new ObjectInputStream(new BufferedInputStream(new FileInputStream(cache.cacheFile)));
+      try {
+        if (in.readInt() != FORMAT_VERSION) {
+          log.info("ignoring cache with different format: " + cache.cacheFile);
+          return cache;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          CacheRecord record = (CacheRecord) in.readObject();
+          cache.records.put(record.path, record);
+        }
+      } finally {
+        in.close();
+      }
+      log.debug("loaded " + cache.records.size() + " entries from " + cache.cacheFile);
+    } catch (IOException e) {
+      log.warn("ignoring unreadable cache " + cache.cacheFile + ": " + e);
+      cache.records.clear();
+    } catch (ClassNotFoundException e) {
+      log.warn("ignoring unreadable cache " + cache.cacheFile + ": " + e);
+      cache.records.clear();
+    }
+    return cache;
+  }
+
+  /**
+   * Returns the cached entry for file, or null if there is none or file has changed.
+   *
+   * @param file the deb file
+   * @return PackageEntry or null
+   */
+  public PackageEntry get(File file) {
+    CacheRecord record = lookup(file);
+    return record != null ? record.entry : null;
+  }
+
+  /**
+   * Returns the cached contents list for file, or null if there is none or file has changed.
+   *
+   * @param file the deb file
+   * @return the file names or null
+   */
+  public String[] getContents(File file) {
+    CacheRecord record = lookup(file);
+    return record != null ? record.contents : null;
+  }
+
+  /**
+   * Stores the entry for file.
+   *
+   * @param file the deb file
+   * @param entry the {@link PackageEntry} computed for file
+   */
+  public void put(File file, PackageEntry entry) {
+    CacheRecord current = identify(file);
+    if (current == null) {
+      return;
+    }
+    synchronized (records) {
+      store(current).entry = entry;
+    }
+  }
+
+  /**
+   * Stores the contents list for file.
+   *
+   * @param file the deb file
+   * @param contents the file names listed for file
+   */
+  public void putContents(File file, String[] contents) {
+    CacheRecord current = identify(file);
+    if (current == null) {
+      return;
+    }
+    synchronized (records) {
+      store(current).contents = contents;
+    }
+  }
+
+  private CacheRecord lookup(File file) {
+    CacheRecord current = identify(file);
+    if (current == null) {
+      return null;
+    }
+    CacheRecord record;
+    synchronized (records) {
+      record = records.get(current.path);
+    }
+    if (record != null && record.sameFile(current)) {
+      return record;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the record to update for current, keeping the data of an existing record of the same
+   * file. Must be called while holding the lock on records.
+   */
+  private CacheRecord store(CacheRecord current) {
+    CacheRecord record = records.get(current.path);
+    if (record == null || !record.sameFile(current)) {
+      record = current;
+      records.put(record.path, record);
+    }
+    modified = true;
+    return record;
+  }
+
+  /**
+   * Moves the control fields of all cached entries into store, see
+   * {@link PackageEntry#spill(SpillStore)}.
+   *
+   * @param store the {@link SpillStore}
+   * @throws IOException if store cannot be written
+   */
+  public void spill(SpillStore store) throws IOException {
+    synchronized (records) {
+      for (CacheRecord record : records.values()) {
+        if (record.entry != null) {
+          record.entry.spill(store);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes all entries which don't belong to one of the given files.
+   *
+   * @param files the files still present in the repository
+   */
+  public void retain(Collection<File> files) {
+    Set<String> paths = new HashSet<String>();
+    for (File file : files) {
+      paths.add(file.getAbsolutePath());
+    }
+    synchronized (records) {
+      for (Iterator<String> it = records.keySet().iterator(); it.hasNext();) {
+        if (!paths.contains(it.next())) {
+          it.remove();
+          modified = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the cache file if anything changed.
+   *
+   * @throws IOException
+   */
+  public void save() throws IOException {
+    synchronized (records) {
+      if (!modified) {
+        return;
+      }
+      File tmpFile = new File(cacheFile.getPath() + ".tmp");
+      ObjectOutputStream out =
+          new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+      try {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(records.size());
+        for (CacheRecord record : records.values()) {
+          out.writeObject(record);
+        }
+      } finally {
+        out.close();
+      }
+      Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      modified = false;
+    }
+    log.debug("saved " + records.size() + " entries to " + cacheFile);
+  }
+
+  private CacheRecord identify(File file) {
+    try {
+      BasicFileAttributes attributes =
+          Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+      CacheRecord record = new CacheRecord();
+      record.path = file.getAbsolutePath();
+      record.size = attributes.size();
+      record.mtime = attributes.lastModifiedTime().toMillis();
+      Object fileKey = attributes.fileKey();
+      record.fileKey = fileKey != null ? fileKey.toString() : null;
+      return record;
+    } catch (IOException e) {
+      log.debug("could not read attributes of " + file + ": " + e);
+      return null;
+    }
+  }
+
+  private static class CacheRecord implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String path;
+    private long size;
+    private long mtime;
+    private String fileKey;
+    private PackageEntry entry;
+    private String[] contents;
+
+    private boolean sameFile(CacheRecord other) {
+      return path.equals(other.path) && size == other.size && mtime == other.mtime
+          && (fileKey == null ? other.fileKey == null : fileKey.equals(other.fileKey));
+    }
+  }
+
+}
@@ -8,14 +8,30 @@
 
 package org.m1theo.apt.repo.packages;
 
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.m1theo.apt.repo.utils.SpillStore;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+
 /**
  * Represents an entry in the Packages file.
+ * <p>
+ * Entries are kept for every package of the repository, so they are compact: the hashes are
+ * stored as bytes, the values shared by many packages are interned and the control fields are
+ * kept as one byte array, which can be moved out of the heap with {@link #spill(SpillStore)}.
  * 
  * @author Theo Weiss
  * @since 0.1.0
  * 
  */
-public class PackageEntry {
+public class PackageEntry implements Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
   private String packageName;
   private String version;
   private String architecture;
@@ -24,17 +40,43 @@ public class PackageEntry {
   private String depends;
   private String filename;
   private long size;
-  private String md5sum;
-  private String sha1;
-  private String sha256;
-  private String sha512;
+  private byte[] md5sum;
+  private byte[] sha1;
+  private byte[] sha256;
+  private byte[] sha512;
   private String section;
   private String priority;
   private String description;
-
+  private byte[] control;
+  private transient SpillStore controlStore;
+  private transient long controlHandle;
+
+  /**
+   * Returns the stanza of this entry for the Packages file. If the control file was set with
+   * {@link #setControl(byte[])}, these are its fields followed by Filename, Size and the hashes,
+   * otherwise the known fields are rendered as by {@link #toString()}.
+   *
+   * @return the UTF-8 encoded stanza, each line terminated by a newline.
+   */
+  public byte[] toBytes() {
+    byte[] control = getControl();
+    if (control == null) {
+      return toString().getBytes(UTF8);
+    }
+    byte[] computed = ("Filename: " + filename + "\n" + "Size: " + size + "\n" + "MD5sum: "
+        + hex(md5sum) + "\n" + "SHA1: " + hex(sha1) + "\n" + "SHA256: " + hex(sha256) + "\n"
+        + "SHA512: " + hex(sha512) + "\n").getBytes(UTF8);
+    byte[] stanza = new byte[control.length + computed.length];
+    System.arraycopy(control, 0, stanza, 0, control.length);
+    System.arraycopy(computed, 0, stanza, control.length, computed.length);
+    return stanza;
+  }
 
   @Override
   public String toString() {
+    if (control != null || controlStore != null) {
+      return new String(toBytes(), UTF8);
+    }
     StringBuffer buffer = new StringBuffer();
     buffer.append("Package: " + packageName + "\n" + "Version: " + version + "\n"
         + "Architecture: " + architecture + "\n" + "Maintainer: " + maintainer + "\n"
@@ -42,8 +84,9 @@ public class PackageEntry {
     if (depends != null) {
       buffer.append("Depends: " + depends + "\n");
     }
-    buffer.append("Filename: " + filename + "\n" + "Size: " + size + "\n" + "MD5sum: " + md5sum
-        + "\n" + "SHA1: " + sha1 + "\n" + "SHA256: " + sha256 + "\n" + "SHA512: " + sha512 + "\n" + "Section: " + section + "\n"
+    buffer.append("Filename: " + filename + "\n" + "Size: " + size + "\n" + "MD5sum: "
+        + hex(md5sum) + "\n" + "SHA1: " + hex(sha1) + "\n" + "SHA256: " + hex(sha256) + "\n"
+        + "SHA512: " + hex(sha512) + "\n" + "Section: " + section + "\n"
         + "Priority: " + priority + "\n" + "Description: " + description + "\n");
 
     return buffer.toString();
@@ -57,12 +100,36 @@ public class PackageEntry {
     this.version = version;
   }
 
+  public String getPackageName() {
+    return packageName;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public String getArchitecture() {
+    return architecture;
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  public String getSection() {
+    return section;
+  }
+
+  public String getSha256() {
+    return hex(sha256);
+  }
+
   public void setArchitecture(String architecture) {
-    this.architecture = architecture;
+    this.architecture = intern(architecture);
   }
 
   public void setMaintainer(String maintainer) {
-    this.maintainer = maintainer;
+    this.maintainer = intern(maintainer);
   }
 
   public void setInstalled_size(String installed_size) {
@@ -82,36 +149,105 @@ public class PackageEntry {
   }
 
   public void setMd5sum(String md5sum) {
-    this.md5sum = md5sum;
+    this.md5sum = bytes(md5sum);
   }
 
   public void setSha1(String sha1) {
-    this.sha1 = sha1;
+    this.sha1 = bytes(sha1);
   }
 
   public String getSha512() {
-    return sha512;
+    return hex(sha512);
   }
 
   public void setSha512(String sha512) {
-    this.sha512 = sha512;
+    this.sha512 = bytes(sha512);
   }
 
   public void setSha256(String sha256) {
-    this.sha256 = sha256;
+    this.sha256 = bytes(sha256);
   }
 
   public void setSection(String section) {
-    this.section = section;
+    this.section = intern(section);
   }
 
   public void setPriority(String priority) {
-    this.priority = priority;
+    this.priority = intern(priority);
   }
 
   public void setDescription(String description) {
     this.description = description;
   }
 
+  /**
+   * Sets the fields of the control file, to be written unchanged to the Packages file.
+   *
+   * @param control the fields as returned by
+   *        {@link org.m1theo.apt.repo.utils.ControlStanza#getData()}, without the computed fields
+   */
+  public void setControl(byte[] control) {
+    this.control = control;
+    this.controlStore = null;
+  }
+
+  /**
+   * Moves the control fields into store. The entry must not be used anymore once store is
+   * unreachable.
+   *
+   * @param store the {@link SpillStore}
+   * @throws IOException if the fields cannot be written to store
+   */
+  public void spill(SpillStore store) throws IOException {
+    if (control == null) {
+      return;
+    }
+    controlHandle = store.put(control);
+    controlStore = store;
+    control = null;
+  }
+
+  private byte[] getControl() {
+    if (controlStore != null) {
+      return controlStore.get(controlHandle);
+    }
+    return control;
+  }
+
+  /**
+   * Writes spilled control fields like ones on the heap.
+   */
+  private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+    if (controlStore == null) {
+      out.defaultWriteObject();
+      return;
+    }
+    control = controlStore.get(controlHandle);
+    try {
+      out.defaultWriteObject();
+    } finally {
+      control = null;
+    }
+  }
+
+  private static String intern(String value) {
+    return value != null ? value.intern() : null;
+  }
+
+  private static String hex(byte[] digest) {
+    return digest != null ? new String(Hex.encodeHex(digest)) : null;
+  }
+
+  private static byte[] bytes(String hex) {
+    if (hex == null) {
+      return null;
+    }
+    try {
+      return Hex.decodeHex(hex.toCharArray());
+    } catch (DecoderException e) {
+      throw new IllegalArgumentException("invalid digest " + hex, e);
+    }
+  }
+
 
 }
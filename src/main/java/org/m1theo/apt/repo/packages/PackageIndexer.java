@@ -0,0 +1,311 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.packages;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.m1theo.apt.repo.utils.ControlHandler;
+import org.m1theo.apt.repo.utils.DebReader;
+import org.m1theo.apt.repo.utils.DefaultHashes;
+import org.m1theo.apt.repo.utils.Metrics;
+import org.m1theo.apt.repo.utils.SpillStore;
+import org.m1theo.apt.repo.utils.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Creates {@link PackageEntry}s and contents lists from deb files, either sequentially or on a
+ * pool of worker threads.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class PackageIndexer {
+  private static final String FAILED_TO_INDEX = "Failed to create apt-repo: ";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final Log log;
+  private PackageCache cache;
+  private File baseDir;
+  private Metrics metrics;
+  private SpillStore spillStore;
+
+  public PackageIndexer(Log log) {
+    this.log = log;
+  }
+
+  /**
+   * Use the given cache to look up and store entries.
+   *
+   * @param cache the {@link PackageCache}, null disables caching
+   */
+  public void setCache(PackageCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Sets the directory the Filename of the entries is relative to. By default it is just the
+   * name of the file.
+   *
+   * @param baseDir the repository directory, null to use the file names
+   */
+  public void setBaseDir(File baseDir) {
+    this.baseDir = baseDir;
+  }
+
+  /**
+   * Records the time spent on each deb file.
+   *
+   * @param metrics the {@link Metrics}, null to record nothing
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Moves the control fields of new entries out of the heap.
+   *
+   * @param spillStore the {@link SpillStore}, null to keep the entries on the heap
+   */
+  public void setSpillStore(SpillStore spillStore) {
+    this.spillStore = spillStore;
+  }
+
+  /**
+   * Index the given deb files. The result has the same order as files, regardless of the number
+   * of threads, so the generated Packages file is identical for sequential and parallel runs.
+   *
+   * @param files the deb files to index
+   * @param threads number of worker threads, values below 1 use one thread per available
+   *        processor
+   * @return a {@link PackageEntry} for every file.
+   * @throws MojoExecutionException
+   */
+  public List<PackageEntry> indexAll(List<File> files, int threads) throws MojoExecutionException {
+    return runAll(files, threads, new FileTask<PackageEntry>() {
+      public PackageEntry run(File file) throws MojoExecutionException {
+        return index(file);
+      }
+    });
+  }
+
+  /**
+   * List the contents of the given deb files, see {@link #listContents(File)}. The result has the
+   * same order as files.
+   *
+   * @param files the deb files to scan
+   * @param threads number of worker threads, values below 1 use one thread per available
+   *        processor
+   * @return the file names for every file.
+   * @throws MojoExecutionException
+   */
+  public List<String[]> listContentsAll(List<File> files, int threads)
+      throws MojoExecutionException {
+    return runAll(files, threads, new FileTask<String[]>() {
+      public String[] run(File file) throws MojoExecutionException {
+        return listContents(file);
+      }
+    });
+  }
+
+  private <T> List<T> runAll(List<File> files, int threads, final FileTask<T> task)
+      throws MojoExecutionException {
+    if (threads < 1) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    threads = Math.min(threads, files.size());
+    if (threads <= 1) {
+      List<T> results = new ArrayList<T>(files.size());
+      for (File file : files) {
+        results.add(task.run(file));
+      }
+      return results;
+    }
+    log.debug("processing " + files.size() + " files using " + threads + " threads");
+    // schedule the largest files first, so a big file does not end up running alone at the end
+    List<Integer> schedule = new ArrayList<Integer>(files.size());
+    final long[] sizes = new long[files.size()];
+    for (int i = 0; i < files.size(); i++) {
+      schedule.add(i);
+      sizes[i] = files.get(i).length();
+    }
+    Collections.sort(schedule, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        if (sizes[a] != sizes[b]) {
+          return sizes[a] > sizes[b] ? -1 : 1;
+        }
+        return a.compareTo(b);
+      }
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<T>> futures = new ArrayList<Future<T>>(files.size());
+      for (int i = 0; i < files.size(); i++) {
+        futures.add(null);
+      }
+      for (Integer i : schedule) {
+        final File file = files.get(i);
+        futures.set(i, executor.submit(new Callable<T>() {
+          public T call() throws MojoExecutionException {
+            return task.run(file);
+          }
+        }));
+      }
+      List<T> results = new ArrayList<T>(files.size());
+      for (Future<T> future : futures) {
+        results.add(waitFor(future));
+      }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private <T> T waitFor(Future<T> future) throws MojoExecutionException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("indexing interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof MojoExecutionException) {
+        throw (MojoExecutionException) e.getCause();
+      }
+      throw new MojoExecutionException("indexing failed", e.getCause());
+    }
+  }
+
+  /**
+   * Compute the hashes of a deb file and parse its control file. If a cache is set and holds an
+   * entry for the unchanged file, that entry is returned instead.
+   *
+   * @param file the deb file
+   * @return the {@link PackageEntry} for file.
+   * @throws MojoExecutionException
+   */
+  public PackageEntry index(File file) throws MojoExecutionException {
+    if (cache != null) {
+      PackageEntry cached = cache.get(file);
+      if (cached != null) {
+        log.debug("using cached entry for deb: " + file.getName());
+        if (metrics != null) {
+          metrics.recordCached(file);
+        }
+        return cached;
+      }
+    }
+    PackageEntry packageEntry = new PackageEntry();
+    packageEntry.setSize(file.length());
+    long start = Metrics.now();
+    DefaultHashes debHashes = Utils.getDefaultDigests(file);
+    if (metrics != null) {
+      metrics.recordDeb(Metrics.HASHING, file, start, file.length());
+    }
+    packageEntry.setSha1(debHashes.getSha1());
+    packageEntry.setSha256(debHashes.getSha256());
+    packageEntry.setSha512(debHashes.getSha512());
+    packageEntry.setMd5sum(debHashes.getMd5());
+    String fileName = file.getName();
+    if (baseDir != null) {
+      fileName = baseDir.toURI().relativize(file.toURI()).getPath();
+    }
+    packageEntry.setFilename(fileName);
+    log.info("found deb: " + fileName);
+    try {
+      start = Metrics.now();
+      byte[] control = DebReader.readControl(file);
+      if (control == null) {
+        throw new MojoExecutionException("no control content found for: " + file.getName());
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("control cont: " + new String(control, UTF8));
+      }
+      ControlHandler controlHandler = new ControlHandler();
+      controlHandler.setControlContent(control);
+      controlHandler.handle(packageEntry);
+      if (metrics != null) {
+        metrics.recordDeb(Metrics.DECODING, file, start, 0);
+      }
+    } catch (MojoExecutionException e) {
+      String msg = FAILED_TO_INDEX + " " + file.getName();
+      log.error(msg, e);
+      throw new MojoExecutionException(msg, e);
+    } catch (IOException e) {
+      String msg = FAILED_TO_INDEX + " " + file.getName();
+      log.error(msg, e);
+      throw new MojoExecutionException(msg, e);
+    }
+    if (spillStore != null) {
+      try {
+        packageEntry.spill(spillStore);
+      } catch (IOException e) {
+        log.debug("keeping entry of " + file.getName() + " on the heap: " + e);
+      }
+    }
+    if (cache != null) {
+      cache.put(file, packageEntry);
+    }
+    return packageEntry;
+  }
+
+  /**
+   * Lists the names of the files in the data member of a deb file, without extracting them. If a
+   * cache is set and holds a list for the unchanged file, that list is returned instead.
+   *
+   * @param file the deb file
+   * @return the file names, relative to the root directory.
+   * @throws MojoExecutionException
+   */
+  public String[] listContents(File file) throws MojoExecutionException {
+    if (cache != null) {
+      String[] cached = cache.getContents(file);
+      if (cached != null) {
+        log.debug("using cached contents for deb: " + file.getName());
+        if (metrics != null) {
+          metrics.recordCached(file);
+        }
+        return cached;
+      }
+    }
+    String[] contents;
+    try {
+      long start = Metrics.now();
+      List<String> names = DebReader.listData(file);
+      contents = names.toArray(new String[names.size()]);
+      if (metrics != null) {
+        metrics.recordDeb(Metrics.CONTENTS_SCAN, file, start, 0);
+      }
+    } catch (IOException e) {
+      String msg = FAILED_TO_INDEX + " " + file.getName();
+      log.error(msg, e);
+      throw new MojoExecutionException(msg, e);
+    }
+    if (cache != null) {
+      cache.putContents(file, contents);
+    }
+    return contents;
+  }
+
+  private interface FileTask<T> {
+    T run(File file) throws MojoExecutionException;
+  }
+
+}
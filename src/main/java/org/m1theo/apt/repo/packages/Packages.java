@@ -9,6 +9,8 @@
 package org.m1theo.apt.repo.packages;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A model the Packages file.
@@ -24,6 +26,10 @@ public class Packages {
     packages.add(packageEntry);
   }
 
+  public List<PackageEntry> getPackageEntries() {
+    return Collections.unmodifiableList(packages);
+  }
+
   @Override
   public String toString() {
     StringBuffer stringBuffer = new StringBuffer();
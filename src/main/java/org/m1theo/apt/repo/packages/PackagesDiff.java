@@ -0,0 +1,470 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.packages;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.m1theo.apt.repo.release.ReleaseInfo;
+import org.m1theo.apt.repo.utils.DefaultHashes;
+import org.m1theo.apt.repo.utils.HashingOutputStream;
+import org.m1theo.apt.repo.utils.Stager;
+import org.m1theo.apt.repo.utils.StagingMode;
+import org.m1theo.apt.repo.utils.Utils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Maintains Packages.diff: ed style patches between successive versions of the Packages file
+ * and the Index describing them, so apt can update its copy of the index incrementally.
+ * <p>
+ * The patches are computed stanza by stanza while both files are streamed. This relies on the
+ * stanzas being sorted by Filename, which is how {@link Packages} are written. Hunks are
+ * collected and written in reverse order, as ed scripts have to be applied bottom up, so only
+ * the changed lines are kept in memory.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class PackagesDiff {
+  public static final String DIFF_DIR = "Packages.diff";
+  public static final String INDEX = "Index";
+  private static final String PREVIOUS = ".previous";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String FILENAME_FIELD = "Filename: ";
+
+  private final File dir;
+  private final File diffDir;
+  private final int historyLength;
+  private final Log log;
+
+  /**
+   * @param dir the directory containing the Packages file
+   * @param historyLength the maximum number of patches to keep
+   * @param log the logger to use
+   */
+  public PackagesDiff(File dir, int historyLength, Log log) {
+    this.dir = dir;
+    this.diffDir = new File(dir, DIFF_DIR);
+    this.historyLength = historyLength;
+    this.log = log;
+  }
+
+  /**
+   * Keeps the current Packages file as the base for the next patch. Must be called before the
+   * new Packages file is written.
+   *
+   * @throws MojoExecutionException
+   */
+  public void prepare() throws MojoExecutionException {
+    File packages = new File(dir, PackagesWriter.PACKAGES);
+    File previous = new File(diffDir, PREVIOUS);
+    previous.delete();
+    if (!packages.exists()) {
+      return;
+    }
+    if (!diffDir.exists() && !diffDir.mkdirs()) {
+      throw new MojoExecutionException("could not create directory " + diffDir);
+    }
+    new Stager(StagingMode.HARDLINK, log).stageAs(packages, previous);
+  }
+
+  /**
+   * Adds a patch from the previous to the new Packages file and rewrites the Index.
+   *
+   * @param current the {@link ReleaseInfo} of the new, uncompressed Packages file
+   * @return the {@link ReleaseInfo} for the Index, its name relative to the Packages directory.
+   * @throws MojoExecutionException
+   */
+  public ReleaseInfo update(ReleaseInfo current) throws MojoExecutionException {
+    if (!diffDir.exists() && !diffDir.mkdirs()) {
+      throw new MojoExecutionException("could not create directory " + diffDir);
+    }
+    File indexFile = new File(diffDir, INDEX);
+    File previous = new File(diffDir, PREVIOUS);
+    Index index = Index.read(indexFile);
+    try {
+      if (previous.exists()) {
+        DefaultHashes previousHashes = Utils.getDefaultDigests(previous);
+        if (index.currentHash != null && !index.currentHash.equals(previousHashes.getSha256())) {
+          log.info("Packages was changed outside of the recorded history, restarting pdiffs");
+          index.clear();
+        }
+        if (!previousHashes.getSha256().equals(current.getSha256hash())) {
+          addPatch(index, previous, previousHashes);
+        }
+      } else {
+        index.clear();
+      }
+    } finally {
+      previous.delete();
+    }
+    while (index.history.size() > historyLength) {
+      String oldest = index.history.keySet().iterator().next();
+      index.remove(oldest);
+      new File(diffDir, oldest + ".gz").delete();
+    }
+    // remove patches which are not listed in the index any longer
+    File[] files = diffDir.listFiles();
+    for (File file : files != null ? files : new File[0]) {
+      String name = file.getName();
+      if (name.endsWith(".gz")
+          && !index.history.containsKey(name.substring(0, name.length() - 3))) {
+        file.delete();
+      }
+    }
+    index.currentHash = current.getSha256hash();
+    index.currentSize = current.getSize();
+    index.write(indexFile);
+    return new ReleaseInfo(DIFF_DIR + "/" + INDEX, indexFile.length(),
+        Utils.getDefaultDigests(indexFile));
+  }
+
+  private void addPatch(Index index, File previous, DefaultHashes previousHashes)
+      throws MojoExecutionException {
+    String name = patchName();
+    File patchFile = new File(diffDir, name + ".gz");
+    List<Hunk> hunks;
+    try {
+      hunks = diff(previous, new File(dir, PackagesWriter.PACKAGES));
+    } catch (IOException e) {
+      throw new MojoExecutionException("could not compute pdiff", e);
+    }
+    if (hunks == null) {
+      log.info("Packages is not sorted by Filename, restarting pdiffs");
+      index.clear();
+      return;
+    }
+    try {
+      HashingOutputStream gzFile =
+          new HashingOutputStream(new BufferedOutputStream(new FileOutputStream(patchFile)));
+      HashingOutputStream plain = new HashingOutputStream(new NullOutputStream());
+      Writer writer =
+          new OutputStreamWriter(new TeeOutputStream(plain, new GZIPOutputStream(gzFile)), UTF8);
+      try {
+        for (int i = hunks.size() - 1; i >= 0; i--) {
+          hunks.get(i).write(writer);
+        }
+      } finally {
+        writer.close();
+      }
+      index.add(name, new Entry(previousHashes.getSha256(), previous.length()), new Entry(plain
+          .getHashes().getSha256(), plain.getLength()), new Entry(gzFile.getHashes().getSha256(),
+          gzFile.getLength()));
+      log.info("created pdiff " + name + " with " + hunks.size() + " hunks");
+    } catch (IOException e) {
+      patchFile.delete();
+      throw new MojoExecutionException("could not write pdiff " + patchFile, e);
+    }
+  }
+
+  private String patchName() {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd-HHmm.ss", Locale.ENGLISH);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    String base = format.format(new Date());
+    String name = base;
+    for (int i = 1; new File(diffDir, name + ".gz").exists(); i++) {
+      name = base + "-" + i;
+    }
+    return name;
+  }
+
+  /**
+   * Computes the hunks transforming from into to, in ascending order, or null if the stanzas of
+   * one of the files are not sorted by Filename.
+   */
+  static List<Hunk> diff(File from, File to) throws IOException {
+    List<Hunk> hunks = new ArrayList<Hunk>();
+    StanzaReader a = new StanzaReader(from);
+    try {
+      StanzaReader b = new StanzaReader(to);
+      try {
+        Hunk hunk = null;
+        a.next();
+        b.next();
+        while (a.lines != null || b.lines != null) {
+          if (!a.sorted || !b.sorted) {
+            return null;
+          }
+          int cmp;
+          if (a.lines == null) {
+            cmp = 1;
+          } else if (b.lines == null) {
+            cmp = -1;
+          } else {
+            cmp = a.key.compareTo(b.key);
+          }
+          if (cmp == 0 && a.lines.equals(b.lines)) {
+            if (hunk != null) {
+              hunks.add(hunk);
+              hunk = null;
+            }
+            a.next();
+            b.next();
+            continue;
+          }
+          if (hunk == null) {
+            hunk = new Hunk(a.firstLine);
+          }
+          if (cmp <= 0) {
+            // stanza of from is replaced or deleted
+            hunk.oldEnd = a.firstLine + a.lines.size() - 1;
+            a.next();
+          }
+          if (cmp >= 0) {
+            // stanza of to replaces or is inserted
+            for (String line : b.lines) {
+              if (line.equals(".")) {
+                return null;
+              }
+              hunk.lines.add(line);
+            }
+            b.next();
+          }
+        }
+        if (hunk != null) {
+          hunks.add(hunk);
+        }
+        return hunks;
+      } finally {
+        b.close();
+      }
+    } finally {
+      a.close();
+    }
+  }
+
+  /**
+   * Replaces the lines oldStart to oldEnd (1 based, inclusive) of the old file by lines. An
+   * oldEnd below oldStart denotes an insertion before oldStart.
+   */
+  static class Hunk {
+    final int oldStart;
+    int oldEnd;
+    final List<String> lines = new ArrayList<String>();
+
+    Hunk(int oldStart) {
+      this.oldStart = oldStart;
+      this.oldEnd = oldStart - 1;
+    }
+
+    void write(Writer writer) throws IOException {
+      String range = oldStart == oldEnd ? Integer.toString(oldStart) : oldStart + "," + oldEnd;
+      if (oldEnd < oldStart) {
+        writer.write((oldStart - 1) + "a\n");
+      } else if (lines.isEmpty()) {
+        writer.write(range + "d\n");
+        return;
+      } else {
+        writer.write(range + "c\n");
+      }
+      for (String line : lines) {
+        writer.write(line);
+        writer.write('\n');
+      }
+      writer.write(".\n");
+    }
+  }
+
+  /**
+   * Reads a Packages file stanza by stanza, each including its terminating empty line.
+   */
+  private static class StanzaReader {
+    private final BufferedReader reader;
+    private List<String> lines;
+    private String key;
+    private int firstLine = 1;
+    private int nextLine = 1;
+    private boolean sorted = true;
+
+    StanzaReader(File file) throws IOException {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+    }
+
+    void next() throws IOException {
+      String previousKey = key;
+      List<String> stanza = new ArrayList<String>();
+      String stanzaKey = null;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        stanza.add(line);
+        if (line.isEmpty()) {
+          break;
+        }
+        if (line.startsWith(FILENAME_FIELD)) {
+          stanzaKey = line.substring(FILENAME_FIELD.length());
+        }
+      }
+      firstLine = nextLine;
+      nextLine += stanza.size();
+      if (stanza.isEmpty()) {
+        lines = null;
+        key = null;
+        return;
+      }
+      lines = stanza;
+      key = stanzaKey != null ? stanzaKey : "";
+      if (previousKey != null && previousKey.compareTo(key) >= 0) {
+        sorted = false;
+      }
+    }
+
+    void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  private static class Entry {
+    final String hash;
+    final long size;
+
+    Entry(String hash, long size) {
+      this.hash = hash;
+      this.size = size;
+    }
+  }
+
+  /**
+   * The Packages.diff/Index file.
+   */
+  private static class Index {
+    String currentHash;
+    long currentSize;
+    final Map<String, Entry> history = new LinkedHashMap<String, Entry>();
+    final Map<String, Entry> patches = new LinkedHashMap<String, Entry>();
+    final Map<String, Entry> downloads = new LinkedHashMap<String, Entry>();
+
+    static Index read(File file) throws MojoExecutionException {
+      Index index = new Index();
+      if (!file.exists()) {
+        return index;
+      }
+      try {
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+        try {
+          Map<String, Entry> section = null;
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (line.startsWith(" ") && section != null) {
+              String[] parts = line.trim().split("\\s+");
+              if (parts.length == 3) {
+                String name = parts[2];
+                if (section == index.downloads && name.endsWith(".gz")) {
+                  name = name.substring(0, name.length() - 3);
+                }
+                section.put(name, new Entry(parts[0], Long.parseLong(parts[1])));
+              }
+            } else if (line.startsWith("SHA256-Current:")) {
+              String[] parts = line.substring(15).trim().split("\\s+");
+              index.currentHash = parts[0];
+              section = null;
+            } else if (line.startsWith("SHA256-History:")) {
+              section = index.history;
+            } else if (line.startsWith("SHA256-Patches:")) {
+              section = index.patches;
+            } else if (line.startsWith("SHA256-Download:")) {
+              section = index.downloads;
+            } else {
+              section = null;
+            }
+          }
+        } finally {
+          reader.close();
+        }
+      } catch (IOException e) {
+        throw new MojoExecutionException("could not read " + file, e);
+      } catch (NumberFormatException e) {
+        throw new MojoExecutionException("could not read " + file, e);
+      }
+      // only keep complete entries
+      for (String name : new ArrayList<String>(index.history.keySet())) {
+        if (!index.patches.containsKey(name) || !index.downloads.containsKey(name)) {
+          index.remove(name);
+        }
+      }
+      return index;
+    }
+
+    void add(String name, Entry history, Entry patch, Entry download) {
+      this.history.put(name, history);
+      this.patches.put(name, patch);
+      this.downloads.put(name, download);
+    }
+
+    void remove(String name) {
+      history.remove(name);
+      patches.remove(name);
+      downloads.remove(name);
+    }
+
+    void clear() {
+      history.clear();
+      patches.clear();
+      downloads.clear();
+    }
+
+    void write(File file) throws MojoExecutionException {
+      StringBuilder b = new StringBuilder();
+      b.append("SHA256-Current: " + currentHash + " " + currentSize + "\n");
+      b.append("SHA256-History:\n");
+      for (Map.Entry<String, Entry> e : history.entrySet()) {
+        b.append(String.format(" %s %7d %s\n", e.getValue().hash, e.getValue().size, e.getKey()));
+      }
+      b.append("SHA256-Patches:\n");
+      for (Map.Entry<String, Entry> e : patches.entrySet()) {
+        b.append(String.format(" %s %7d %s\n", e.getValue().hash, e.getValue().size, e.getKey()));
+      }
+      b.append("SHA256-Download:\n");
+      for (Map.Entry<String, Entry> e : downloads.entrySet()) {
+        b.append(String.format(" %s %7d %s.gz\n", e.getValue().hash, e.getValue().size,
+            e.getKey()));
+      }
+      // replace instead of overwrite, the old Index may be linked from by-hash
+      File tmpFile = new File(file.getParentFile(), "." + file.getName() + ".new");
+      try {
+        OutputStream out = new FileOutputStream(tmpFile);
+        try {
+          out.write(b.toString().getBytes(UTF8));
+        } finally {
+          out.close();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        tmpFile.delete();
+        throw new MojoExecutionException("could not write " + file, e);
+      }
+    }
+  }
+
+}
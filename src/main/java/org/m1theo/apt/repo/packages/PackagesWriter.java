@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.packages;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.m1theo.apt.repo.release.ReleaseInfo;
+import org.m1theo.apt.repo.utils.Compression;
+import org.m1theo.apt.repo.utils.HashingOutputStream;
+import org.m1theo.apt.repo.utils.Metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes the Packages file and its compressed variants in one pass. Every stanza is rendered
+ * once and written to all outputs, while the size and hashes of each file are computed on the
+ * fly for the {@link ReleaseInfo}s. The files are written under temporary names and renamed
+ * when complete, so readers never see a partial file and existing hard links to the previous
+ * files are left intact.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class PackagesWriter {
+  public static final String PACKAGES = "Packages";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final List<Output> outputs = new ArrayList<Output>();
+  private ExecutorService executor;
+  private Metrics metrics;
+  private long renderNanos;
+  private long writeNanos;
+
+  /**
+   * Creates the files Packages and Packages.gz in dir.
+   *
+   * @param dir the directory for the files
+   * @throws MojoExecutionException
+   */
+  public PackagesWriter(File dir) throws MojoExecutionException {
+    this(dir, EnumSet.of(Compression.GZIP), false);
+  }
+
+  /**
+   * Creates the file Packages and a compressed variant for each of the given compressions in
+   * dir.
+   *
+   * @param dir the directory for the files
+   * @param compressions the compressed variants to write
+   * @param maxCompression true to use the strongest compression level of each format
+   * @throws MojoExecutionException
+   */
+  public PackagesWriter(File dir, Collection<Compression> compressions, boolean maxCompression)
+      throws MojoExecutionException {
+    this(dir, compressions, maxCompression, 1);
+  }
+
+  /**
+   * Creates the file Packages and a compressed variant for each of the given compressions in
+   * dir. With more than one thread, gzip and xz data is compressed block-wise in parallel.
+   *
+   * @param dir the directory for the files
+   * @param compressions the compressed variants to write
+   * @param maxCompression true to use the strongest compression level of each format
+   * @param threads number of compression threads, values below 1 use one thread per available
+   *        processor
+   * @throws MojoExecutionException
+   */
+  public PackagesWriter(File dir, Collection<Compression> compressions, boolean maxCompression,
+      int threads) throws MojoExecutionException {
+    if (threads < 1) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    if (threads > 1) {
+      executor = Executors.newFixedThreadPool(threads);
+    }
+    try {
+      Output plain = open(dir, PACKAGES);
+      plain.stream = plain.file;
+      outputs.add(plain);
+      for (Compression compression : EnumSet.copyOf(compressions)) {
+        if (compression == Compression.NONE) {
+          continue;
+        }
+        Output output = open(dir, PACKAGES + compression.getExtension());
+        outputs.add(output);
+        output.stream = compression.compress(output.file, maxCompression, executor, threads);
+      }
+    } catch (IOException e) {
+      close();
+      throw new MojoExecutionException("could not create " + PACKAGES, e);
+    }
+  }
+
+  /**
+   * Records the time spent rendering and writing the files in {@link Metrics#RENDERING} and
+   * {@link Metrics#COMPRESSION} when they are finished.
+   *
+   * @param metrics the {@link Metrics}, null to record nothing
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  private Output open(File dir, String name) throws IOException, MojoExecutionException {
+    Output output = new Output(name, new File(dir, name), new File(dir, "." + name + ".new"));
+    output.file =
+        new HashingOutputStream(new BufferedOutputStream(new FileOutputStream(output.tmpFile),
+            BUFFER_SIZE));
+    output.stream = output.file;
+    return output;
+  }
+
+  /**
+   * Writes all entries of packages.
+   *
+   * @param packages the {@link Packages} to write
+   * @throws MojoExecutionException
+   */
+  public void write(Packages packages) throws MojoExecutionException {
+    for (PackageEntry entry : packages.getPackageEntries()) {
+      write(entry);
+    }
+  }
+
+  /**
+   * Writes the stanza of entry, followed by an empty line.
+   *
+   * @param entry the {@link PackageEntry} to write
+   * @throws MojoExecutionException
+   */
+  public void write(PackageEntry entry) throws MojoExecutionException {
+    long start = System.nanoTime();
+    byte[] stanza = entry.toBytes();
+    long rendered = System.nanoTime();
+    renderNanos += rendered - start;
+    try {
+      for (Output output : outputs) {
+        output.stream.write(stanza);
+        output.stream.write('\n');
+      }
+      writeNanos += System.nanoTime() - rendered;
+    } catch (IOException e) {
+      close();
+      throw new MojoExecutionException("writing " + PACKAGES + " failed", e);
+    }
+  }
+
+  /**
+   * Closes all files and returns the {@link ReleaseInfo}s for them.
+   *
+   * @return a {@link ReleaseInfo} for each written file.
+   * @throws MojoExecutionException
+   */
+  public List<ReleaseInfo> finish() throws MojoExecutionException {
+    List<ReleaseInfo> infos = new ArrayList<ReleaseInfo>();
+    long start = System.nanoTime();
+    try {
+      for (Output output : outputs) {
+        output.stream.close();
+      }
+      writeNanos += System.nanoTime() - start;
+      for (Output output : outputs) {
+        Files.move(output.tmpFile.toPath(), output.target.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+    } catch (IOException e) {
+      close();
+      throw new MojoExecutionException("writing " + PACKAGES + " failed", e);
+    } finally {
+      shutdown();
+    }
+    long written = 0;
+    for (Output output : outputs) {
+      infos.add(new ReleaseInfo(output.name, output.file.getLength(), output.file.getHashes()));
+      written += output.file.getLength();
+    }
+    if (metrics != null) {
+      metrics.addNanos(Metrics.RENDERING, renderNanos, 0, 0, 0);
+      metrics.addNanos(Metrics.COMPRESSION, writeNanos, 0, written, outputs.size());
+    }
+    return infos;
+  }
+
+  private void close() {
+    for (Output output : outputs) {
+      try {
+        if (output.stream != null) {
+          output.stream.close();
+        }
+      } catch (IOException e) {
+        // already failing
+      }
+      output.tmpFile.delete();
+    }
+    shutdown();
+  }
+
+  private void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private static class Output {
+    private final String name;
+    private final File target;
+    private final File tmpFile;
+    private HashingOutputStream file;
+    private OutputStream stream;
+
+    private Output(String name, File target, File tmpFile) {
+      this.name = name;
+      this.target = target;
+      this.tmpFile = tmpFile;
+    }
+  }
+
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.packages;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.m1theo.apt.repo.utils.ControlStanza;
+import org.m1theo.apt.repo.utils.DebReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Helpers for the Debian repository layout with a pool/ tree for the deb files and
+ * dists/&lt;suite&gt;/&lt;component&gt;/binary-&lt;arch&gt;/ directories for the indices. All
+ * packages of a repository belong to a single component.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class PoolLayout {
+  public static final String POOL = "pool";
+  public static final String DISTS = "dists";
+  public static final String ARCH_ALL = "all";
+
+  /**
+   * Returns the pool directory for a deb file, relative to the repository, see
+   * {@link #getPoolPath(String, String)}. The package name is read from the Package field of the
+   * control file, the file name may be anything, e.g. carry a Maven classifier.
+   *
+   * @param component the component, e.g. main
+   * @param deb the deb file
+   * @return String
+   * @throws MojoExecutionException if the control file cannot be read or has no Package field
+   */
+  public static String getPoolPath(String component, File deb) throws MojoExecutionException {
+    byte[] control;
+    try {
+      control = DebReader.readControl(deb);
+    } catch (IOException e) {
+      throw new MojoExecutionException("could not read the control file of " + deb, e);
+    }
+    if (control == null) {
+      throw new MojoExecutionException("no control file found in " + deb);
+    }
+    String packageName = ControlStanza.parse(control, 0, control.length).get("Package");
+    if (packageName == null || packageName.isEmpty()) {
+      throw new MojoExecutionException("no Package field in the control file of " + deb);
+    }
+    return getPoolPath(component, packageName);
+  }
+
+  /**
+   * Returns the pool directory for a package, relative to the repository:
+   * pool/&lt;component&gt;/&lt;prefix&gt;/&lt;package&gt;. The prefix is the first letter of the
+   * package name or, for libraries, its first four letters.
+   *
+   * @param component the component, e.g. main
+   * @param packageName the name of the package
+   * @return String
+   */
+  public static String getPoolPath(String component, String packageName) {
+    String prefix =
+        packageName.startsWith("lib") && packageName.length() > 3 ? packageName.substring(0, 4)
+            : packageName.substring(0, 1);
+    return POOL + "/" + component + "/" + prefix + "/" + packageName;
+  }
+
+  /**
+   * Returns all files below dir whose name ends with extension, sorted by path.
+   *
+   * @param dir the directory to search
+   * @param extension the file name extension, including the dot
+   * @return List of files
+   */
+  public static List<File> listFiles(File dir, String extension) {
+    List<File> result = new ArrayList<File>();
+    collect(dir, extension, result);
+    Collections.sort(result);
+    return result;
+  }
+
+  private static void collect(File dir, String extension, List<File> result) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+        collect(file, extension, result);
+      } else if (file.getName().endsWith(extension)) {
+        result.add(file);
+      }
+    }
+  }
+
+  /**
+   * Returns the architectures of the given entries, excluding "all". If there are only
+   * packages for "all", the result is "all".
+   *
+   * @param entries the package entries
+   * @return sorted set of architectures
+   */
+  public static Set<String> getArchitectures(List<PackageEntry> entries) {
+    Set<String> architectures = new TreeSet<String>();
+    for (PackageEntry entry : entries) {
+      if (entry.getArchitecture() != null) {
+        architectures.add(entry.getArchitecture());
+      }
+    }
+    if (architectures.size() > 1) {
+      architectures.remove(ARCH_ALL);
+    }
+    if (architectures.isEmpty()) {
+      architectures.add(ARCH_ALL);
+    }
+    return architectures;
+  }
+
+  /**
+   * Distributes the entries to the given architectures, packages for "all" are added to every
+   * architecture. The order of the entries is kept. Packages for other architectures or without
+   * one are not listed for any architecture, each of them is reported as warning.
+   *
+   * @param entries the package entries
+   * @param architectures the architectures to create indices for
+   * @param log the logger to use
+   * @return the {@link Packages} per architecture.
+   */
+  public static Map<String, Packages> route(List<PackageEntry> entries, Set<String> architectures,
+      Log log) {
+    Map<String, Packages> result = new LinkedHashMap<String, Packages>();
+    for (String architecture : architectures) {
+      result.put(architecture, new Packages());
+    }
+    for (PackageEntry entry : entries) {
+      String architecture = entry.getArchitecture();
+      if (ARCH_ALL.equals(architecture)) {
+        for (Packages packages : result.values()) {
+          packages.addPackageEntry(entry);
+        }
+      } else if (result.containsKey(architecture)) {
+        result.get(architecture).addPackageEntry(entry);
+      } else if (architecture == null) {
+        log.warn(entry.getFilename() + " has no Architecture field, it is not listed for any"
+            + " architecture");
+      } else {
+        log.warn(entry.getFilename() + " is for " + architecture + ", not one of "
+            + architectures + ", it is not listed for any architecture");
+      }
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.release;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.m1theo.apt.repo.utils.Stager;
+import org.m1theo.apt.repo.utils.StagingMode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Publishes index files under by-hash/&lt;algorithm&gt;/&lt;digest&gt; next to the index (see
+ * Acquire-By-Hash in the Debian repository format). Files which are no longer referenced are
+ * kept for the configured retention time, so clients holding an older Release can still fetch
+ * them.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class ByHash {
+  public static final String BY_HASH = "by-hash";
+  private static final String STATE_FILE = ".superseded";
+
+  private final long retentionMillis;
+  private final Log log;
+  private final Stager stager;
+  private final Map<File, Set<String>> current = new LinkedHashMap<File, Set<String>>();
+
+  /**
+   * @param retentionMillis how long unreferenced files are kept
+   * @param log the logger to use
+   */
+  public ByHash(long retentionMillis, Log log) {
+    this.retentionMillis = retentionMillis;
+    this.log = log;
+    this.stager = new Stager(StagingMode.HARDLINK, log);
+  }
+
+  /**
+   * Publishes the index file described by info under its digests.
+   *
+   * @param baseDir the directory the name of info is relative to
+   * @param info the {@link ReleaseInfo} of the index file
+   * @throws MojoExecutionException
+   */
+  public void publish(File baseDir, ReleaseInfo info) throws MojoExecutionException {
+    File indexFile = new File(baseDir, info.getName());
+    File byHashDir = new File(indexFile.getParentFile(), BY_HASH);
+    Set<String> names = current.get(byHashDir);
+    if (names == null) {
+      names = new HashSet<String>();
+      current.put(byHashDir, names);
+    }
+    publish(indexFile, byHashDir, "MD5Sum", info.getMd5hash(), names);
+    publish(indexFile, byHashDir, "SHA1", info.getSha1hash(), names);
+    publish(indexFile, byHashDir, "SHA256", info.getSha256hash(), names);
+    publish(indexFile, byHashDir, "SHA512", info.getSha512hash(), names);
+  }
+
+  private void publish(File indexFile, File byHashDir, String algorithm, String hash,
+      Set<String> names) throws MojoExecutionException {
+    File dir = new File(byHashDir, algorithm);
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new MojoExecutionException("could not create directory " + dir);
+    }
+    stager.stageAs(indexFile, new File(dir, hash));
+    names.add(algorithm + "/" + hash);
+  }
+
+  /**
+   * Removes files from the by-hash directories which have not been referenced for longer than
+   * the retention time.
+   *
+   * @throws MojoExecutionException
+   */
+  public void prune() throws MojoExecutionException {
+    long now = System.currentTimeMillis();
+    for (Map.Entry<File, Set<String>> entry : current.entrySet()) {
+      File byHashDir = entry.getKey();
+      Set<String> names = entry.getValue();
+      File stateFile = new File(byHashDir, STATE_FILE);
+      Properties superseded = load(stateFile);
+      Properties updated = new Properties();
+      File[] dirs = byHashDir.listFiles();
+      for (File dir : dirs != null ? dirs : new File[0]) {
+        File[] files = dir.isDirectory() ? dir.listFiles() : null;
+        for (File file : files != null ? files : new File[0]) {
+          String name = dir.getName() + "/" + file.getName();
+          if (names.contains(name)) {
+            continue;
+          }
+          long since = now;
+          String value = superseded.getProperty(name);
+          if (value != null) {
+            try {
+              since = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+              // start over
+            }
+          }
+          if (now - since >= retentionMillis) {
+            log.debug("removing expired " + file);
+            if (!file.delete()) {
+              log.warn("could not remove " + file);
+            }
+          } else {
+            updated.setProperty(name, Long.toString(since));
+          }
+        }
+      }
+      store(stateFile, updated);
+    }
+  }
+
+  private Properties load(File stateFile) throws MojoExecutionException {
+    Properties properties = new Properties();
+    if (stateFile.exists()) {
+      try {
+        InputStream in = new FileInputStream(stateFile);
+        try {
+          properties.load(in);
+        } finally {
+          in.close();
+        }
+      } catch (IOException e) {
+        throw new MojoExecutionException("could not read " + stateFile, e);
+      }
+    }
+    return properties;
+  }
+
+  private void store(File stateFile, Properties properties) throws MojoExecutionException {
+    try {
+      OutputStream out = new FileOutputStream(stateFile);
+      try {
+        properties.store(out, "unreferenced by-hash files and when they were superseded");
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("could not write " + stateFile, e);
+    }
+  }
+
+}
@@ -8,6 +8,9 @@
 
 package org.m1theo.apt.repo.release;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -32,6 +35,11 @@ import java.util.TimeZone;
  */
 public class Release {
   String date;
+  String suite;
+  String codename;
+  String architectures;
+  String components;
+  boolean acquireByHash;
   List<ReleaseInfo> infos = new ArrayList<ReleaseInfo>();
 
   public Release() {
@@ -46,29 +54,84 @@ public class Release {
     this.date = date;
   }
 
+  public void setSuite(String suite) {
+    this.suite = suite;
+  }
+
+  public void setCodename(String codename) {
+    this.codename = codename;
+  }
+
+  public void setArchitectures(String architectures) {
+    this.architectures = architectures;
+  }
+
+  public void setComponents(String components) {
+    this.components = components;
+  }
+
+  public void setAcquireByHash(boolean acquireByHash) {
+    this.acquireByHash = acquireByHash;
+  }
+
+  public List<ReleaseInfo> getInfos() {
+    return infos;
+  }
+
   public void addInfo(ReleaseInfo info) {
     infos.add(info);
   }
 
-  @Override
-  public String toString() {
-    StringBuffer b = new StringBuffer();
-    b.append("Date: " + date + "\n");
-    b.append("MD5Sum:\n");
+  /**
+   * Writes the Release file.
+   *
+   * @param out the destination
+   * @throws IOException if out cannot be written
+   */
+  public void write(Writer out) throws IOException {
+    if (suite != null) {
+      out.write("Suite: " + suite + "\n");
+    }
+    if (codename != null) {
+      out.write("Codename: " + codename + "\n");
+    }
+    out.write("Date: " + date + "\n");
+    if (acquireByHash) {
+      out.write("Acquire-By-Hash: yes\n");
+    }
+    if (architectures != null) {
+      out.write("Architectures: " + architectures + "\n");
+    }
+    if (components != null) {
+      out.write("Components: " + components + "\n");
+    }
+    out.write("MD5Sum:\n");
     for (ReleaseInfo info : infos) {
-      b.append(String.format(" %s  %s %s\n", info.getMd5hash(), info.getSize(), info.getName()));
+      out.write(String.format(" %s  %s %s\n", info.getMd5hash(), info.getSize(), info.getName()));
     }
-    b.append("SHA1:\n");
+    out.write("SHA1:\n");
     for (ReleaseInfo info : infos) {
-      b.append(String.format(" %s  %s %s\n", info.getSha1hash(), info.getSize(), info.getName()));
+      out.write(String.format(" %s  %s %s\n", info.getSha1hash(), info.getSize(), info.getName()));
     }
-    b.append("SHA256:\n");
+    out.write("SHA256:\n");
     for (ReleaseInfo info : infos) {
-      b.append(String.format(" %s  %s %s\n", info.getSha256hash(), info.getSize(), info.getName()));
+      out.write(String.format(" %s  %s %s\n", info.getSha256hash(), info.getSize(),
+          info.getName()));
     }
-    b.append("SHA512:\n");
+    out.write("SHA512:\n");
     for (ReleaseInfo info : infos) {
-      b.append(String.format(" %s  %s %s\n", info.getSha512hash(), info.getSize(), info.getName()));
+      out.write(String.format(" %s  %s %s\n", info.getSha512hash(), info.getSize(),
+          info.getName()));
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringWriter b = new StringWriter();
+    try {
+      write(b);
+    } catch (IOException e) {
+      // a StringWriter does not throw
     }
     return b.toString();
   }
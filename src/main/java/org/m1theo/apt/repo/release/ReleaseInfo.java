@@ -89,4 +89,8 @@ public class ReleaseInfo {
   public String getName() {
     return name;
   }
+
+  public void setName(String name) {
+    this.name = name;
+  }
 }
@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.server;
+
+import org.apache.maven.plugin.logging.Log;
+import org.m1theo.apt.repo.packages.PoolLayout;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The SHA256 hashes of the files of a repository, as recorded in its Release files (for the
+ * index files) and Packages files (for the deb files). Used as strong ETags without hashing any
+ * file. The index is reloaded when a Release file changes. The size and modification time of every
+ * file are recorded when the index is loaded, a file changed since, e.g. a deb file replaced
+ * before the Release file is written again, has no known hash until the next reload.
+ * <p>
+ * Lookups never block: the index is an immutable snapshot replaced as a whole, and a single
+ * thread checks the Release files and reloads the index while the others keep using the previous
+ * snapshot.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+class HashIndex {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String RELEASE = "Release";
+  private static final String PACKAGES = "Packages";
+  private static final long CHECK_INTERVAL = 1000;
+
+  private final File root;
+  private final Log log;
+  private final ReentrantLock refreshLock = new ReentrantLock();
+  private volatile Snapshot snapshot =
+      new Snapshot(new HashMap<String, Long>(), new HashMap<String, Hash>());
+  private volatile long lastCheck;
+
+  HashIndex(File root, Log log) {
+    this.root = root;
+    this.log = log;
+  }
+
+  /**
+   * Returns the SHA256 of file if it is known and file still has the recorded size and
+   * modification time.
+   *
+   * @param file the file
+   * @param size the current size of file
+   * @return the hex encoded SHA256 or null.
+   */
+  String get(File file, long size) {
+    if (System.currentTimeMillis() - lastCheck >= CHECK_INTERVAL && refreshLock.tryLock()) {
+      try {
+        refresh();
+      } finally {
+        refreshLock.unlock();
+      }
+    }
+    Hash hash = snapshot.hashes.get(file.getAbsolutePath());
+    if (hash == null || hash.size != size || hash.lastModified != file.lastModified()) {
+      return null;
+    }
+    return hash.sha256;
+  }
+
+  /**
+   * Reloads the index if a Release file changed, called by one thread at a time.
+   */
+  private void refresh() {
+    long now = System.currentTimeMillis();
+    if (now - lastCheck < CHECK_INTERVAL) {
+      // refreshed by another thread in the meantime
+      return;
+    }
+    Map<String, Long> current = findReleases();
+    if (!current.equals(snapshot.releases)) {
+      snapshot = new Snapshot(current, load(current));
+    }
+    lastCheck = now;
+  }
+
+  private Map<String, Long> findReleases() {
+    Map<String, Long> result = new HashMap<String, Long>();
+    addRelease(new File(root, RELEASE), result);
+    File[] suites = new File(root, PoolLayout.DISTS).listFiles();
+    if (suites != null) {
+      for (File suite : suites) {
+        addRelease(new File(suite, RELEASE), result);
+      }
+    }
+    return result;
+  }
+
+  private void addRelease(File release, Map<String, Long> result) {
+    if (release.isFile()) {
+      result.put(release.getAbsolutePath(), release.lastModified());
+    }
+  }
+
+  private Map<String, Hash> load(Map<String, Long> releaseFiles) {
+    Map<String, Hash> result = new HashMap<String, Hash>();
+    for (String releasePath : releaseFiles.keySet()) {
+      File release = new File(releasePath);
+      try {
+        loadRelease(release, result);
+      } catch (IOException e) {
+        log.warn("could not read " + release + ": " + e);
+      }
+    }
+    log.debug("loaded " + result.size() + " hashes");
+    return result;
+  }
+
+  private void loadRelease(File release, Map<String, Hash> result) throws IOException {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(release), UTF8));
+    try {
+      String section = null;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.startsWith(" ")) {
+          int colon = line.indexOf(':');
+          section = colon < 0 ? null : line.substring(0, colon);
+          continue;
+        }
+        if (!"SHA256".equals(section)) {
+          continue;
+        }
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length != 3) {
+          continue;
+        }
+        File file = new File(release.getParentFile(), fields[2]);
+        result.put(file.getAbsolutePath(), new Hash(fields[0], Long.parseLong(fields[1]), file));
+        if (file.getName().equals(PACKAGES) && file.isFile()) {
+          loadPackages(file, result);
+        }
+      }
+    } catch (NumberFormatException e) {
+      throw new IOException("invalid size in " + release, e);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private void loadPackages(File packages, Map<String, Hash> result) throws IOException {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(packages), UTF8));
+    try {
+      String filename = null;
+      String sha256 = null;
+      long size = -1;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          if (filename != null && sha256 != null) {
+            File file = new File(root, filename);
+            result.put(file.getAbsolutePath(), new Hash(sha256, size, file));
+          }
+          filename = null;
+          sha256 = null;
+          size = -1;
+        } else if (line.startsWith("Filename: ")) {
+          filename = line.substring(10).trim();
+        } else if (line.startsWith("SHA256: ")) {
+          sha256 = line.substring(8).trim();
+        } else if (line.startsWith("Size: ")) {
+          size = Long.parseLong(line.substring(6).trim());
+        }
+      }
+      if (filename != null && sha256 != null) {
+        File file = new File(root, filename);
+        result.put(file.getAbsolutePath(), new Hash(sha256, size, file));
+      }
+    } catch (NumberFormatException e) {
+      throw new IOException("invalid size in " + packages, e);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static class Snapshot {
+    private final Map<String, Long> releases;
+    private final Map<String, Hash> hashes;
+
+    private Snapshot(Map<String, Long> releases, Map<String, Hash> hashes) {
+      this.releases = releases;
+      this.hashes = hashes;
+    }
+  }
+
+  private static class Hash {
+    private final String sha256;
+    private final long size;
+    private final long lastModified;
+
+    private Hash(String sha256, long size, File file) {
+      this.sha256 = sha256;
+      this.size = size;
+      this.lastModified = file.lastModified();
+    }
+  }
+
+}
@@ -0,0 +1,573 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.server;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A small HTTP/1.1 server for a repository directory. Only GET and HEAD are supported. File
+ * contents are sent with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so the kernel copies them directly to the socket. Single byte ranges, ETags (the SHA256 from the
+ * Release and Packages files) with If-None-Match, and cache headers suitable for apt clients and
+ * proxies are supported: files in by-hash/ never change and are cached forever, all other files
+ * only briefly and are then revalidated by their ETag, so clients see a consistent Release file
+ * and indices. This includes the deb files in pool/, as a package rebuilt without a new version
+ * replaces its file under the same name.
+ *
+ * Every connection is handled on its own virtual thread if the JVM supports them, otherwise on a
+ * cached thread pool.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class RepoServer {
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int MAX_HEADER_SIZE = 16 * 1024;
+  private static final int IDLE_TIMEOUT = 30 * 1000;
+  private static final String CACHE_IMMUTABLE = "public, max-age=31536000, immutable";
+  private static final String CACHE_SHORT = "public, max-age=30, must-revalidate";
+  private static final String BY_HASH = "by-hash";
+
+  private final File root;
+  private final Path rootPath;
+  private final Log log;
+  private final HashIndex hashIndex;
+  private ServerSocketChannel server;
+  private ExecutorService executor;
+
+  /**
+   * @param root the repository directory to serve
+   * @param log the logger to use
+   */
+  public RepoServer(File root, Log log) {
+    this.root = root.getAbsoluteFile();
+    this.rootPath = this.root.toPath().normalize();
+    this.log = log;
+    this.hashIndex = new HashIndex(this.root, log);
+  }
+
+  /**
+   * Binds the server socket.
+   *
+   * @param address the address to listen on
+   * @return the bound address, useful with port 0.
+   * @throws IOException
+   */
+  public synchronized InetSocketAddress bind(InetSocketAddress address) throws IOException {
+    server = ServerSocketChannel.open();
+    server.socket().setReuseAddress(true);
+    server.socket().bind(address, 1024);
+    executor = createExecutor();
+    InetSocketAddress bound = (InetSocketAddress) server.socket().getLocalSocketAddress();
+    log.info("serving " + root + " on http://" + bound.getHostString() + ":" + bound.getPort()
+        + "/");
+    return bound;
+  }
+
+  /**
+   * Accepts connections until {@link #stop()} is called.
+   *
+   * @throws IOException
+   */
+  public void run() throws IOException {
+    try {
+      while (true) {
+        final SocketChannel channel = server.accept();
+        executor.execute(new Runnable() {
+          public void run() {
+            handle(channel);
+          }
+        });
+      }
+    } catch (AsynchronousCloseException e) {
+      log.info("server stopped");
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Closes the server socket, open connections are completed.
+   */
+  public synchronized void stop() {
+    if (server != null) {
+      try {
+        server.close();
+      } catch (IOException e) {
+        log.debug("closing server failed: " + e);
+      }
+    }
+  }
+
+  /**
+   * Uses Executors.newVirtualThreadPerTaskExecutor() where available (Java 21), so thousands of
+   * mostly idle connections don't need a platform thread each.
+   */
+  private static ExecutorService createExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (NoSuchMethodException e) {
+      // older JVM
+    } catch (IllegalAccessException e) {
+      // not usable
+    } catch (InvocationTargetException e) {
+      // preview feature not enabled
+    }
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "apt-repo-http");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  private void handle(SocketChannel channel) {
+    try {
+      Socket socket = channel.socket();
+      socket.setSoTimeout(IDLE_TIMEOUT);
+      socket.setTcpNoDelay(true);
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      Request request;
+      while ((request = Request.read(in)) != null) {
+        boolean keepAlive;
+        try {
+          keepAlive = respond(channel, request);
+        } catch (RuntimeException e) {
+          log.warn("could not answer " + request.method + " " + request.target, e);
+          sendError(channel, request, 500, "Internal Server Error", false);
+          break;
+        }
+        if (!keepAlive) {
+          break;
+        }
+      }
+    } catch (SocketTimeoutException e) {
+      // idle keep-alive connection
+    } catch (IOException e) {
+      log.debug("connection failed: " + e);
+    } catch (RuntimeException e) {
+      log.warn("connection failed", e);
+    } finally {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Sends the response for request.
+   *
+   * @return true if the connection can be used for further requests.
+   */
+  private boolean respond(SocketChannel channel, Request request) throws IOException {
+    boolean keepAlive = request.isKeepAlive();
+    if (request.method == null) {
+      sendError(channel, request, 400, "Bad Request", false);
+      return false;
+    }
+    boolean head = request.method.equals("HEAD");
+    if (!head && !request.method.equals("GET")) {
+      sendError(channel, request, 405, "Method Not Allowed", keepAlive);
+      return keepAlive;
+    }
+    String path = getPath(request.target);
+    if (path == null) {
+      sendError(channel, request, 400, "Bad Request", false);
+      return false;
+    }
+    File file = resolve(path);
+    if (file == null || !file.isFile()) {
+      sendError(channel, request, 404, "Not Found", keepAlive);
+      return keepAlive;
+    }
+    FileChannel fileChannel;
+    try {
+      fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    } catch (IOException e) {
+      sendError(channel, request, 404, "Not Found", keepAlive);
+      return keepAlive;
+    }
+    try {
+      long size = fileChannel.size();
+      String relative = rootPath.relativize(file.toPath()).toString().replace(File.separatorChar,
+          '/');
+      String etag = getETag(file, relative, size);
+      Map<String, String> headers = new HashMap<String, String>();
+      headers.put("ETag", etag);
+      headers.put("Last-Modified", formatDate(file.lastModified()));
+      headers.put("Cache-Control", isImmutable(relative) ? CACHE_IMMUTABLE : CACHE_SHORT);
+      headers.put("Accept-Ranges", "bytes");
+      String ifNoneMatch = request.headers.get("if-none-match");
+      if (ifNoneMatch != null && matches(ifNoneMatch, etag)) {
+        send(channel, 304, "Not Modified", headers, -1, keepAlive);
+        return keepAlive;
+      }
+      headers.put("Content-Type", getContentType(file.getName()));
+      long start = 0;
+      long length = size;
+      int status = 200;
+      String range = request.headers.get("range");
+      String ifRange = request.headers.get("if-range");
+      if (range != null && (ifRange == null || (ifRange.equals(etag) && !etag.startsWith("W/")))) {
+        long[] byteRange = parseRange(range, size);
+        if (byteRange == null) {
+          headers.put("Content-Range", "bytes */" + size);
+          send(channel, 416, "Range Not Satisfiable", headers, 0, keepAlive);
+          return keepAlive;
+        }
+        if (byteRange.length == 2) {
+          start = byteRange[0];
+          length = byteRange[1] - byteRange[0] + 1;
+          status = 206;
+          headers.put("Content-Range", "bytes " + byteRange[0] + "-" + byteRange[1] + "/" + size);
+        }
+      }
+      send(channel, status, status == 206 ? "Partial Content" : "OK", headers, length, keepAlive);
+      if (!head) {
+        long position = start;
+        long end = start + length;
+        while (position < end) {
+          long n = fileChannel.transferTo(position, end - position, channel);
+          if (n <= 0) {
+            throw new IOException("could not send " + file);
+          }
+          position += n;
+        }
+      }
+      return keepAlive;
+    } finally {
+      fileChannel.close();
+    }
+  }
+
+  /**
+   * Returns the decoded path of a request target without the query, or null if the target is
+   * not an absolute path or contains invalid escapes or control characters.
+   */
+  static String getPath(String target) {
+    if (target == null || !target.startsWith("/")) {
+      return null;
+    }
+    int query = target.indexOf('?');
+    if (query >= 0) {
+      target = target.substring(0, query);
+    }
+    return decode(target);
+  }
+
+  /**
+   * Maps a decoded path to a file below root. Returns null for paths outside of root and for
+   * hidden files like the cache.
+   */
+  private File resolve(String path) {
+    for (String segment : path.split("/")) {
+      if (segment.startsWith(".")) {
+        return null;
+      }
+    }
+    Path resolved;
+    try {
+      resolved = rootPath.resolve(path.substring(1)).normalize();
+    } catch (InvalidPathException e) {
+      return null;
+    }
+    if (!resolved.startsWith(rootPath)) {
+      return null;
+    }
+    return resolved.toFile();
+  }
+
+  private String getETag(File file, String relative, long size) {
+    int byHash = relative.lastIndexOf(BY_HASH + "/");
+    if (byHash >= 0 && (byHash == 0 || relative.charAt(byHash - 1) == '/')) {
+      // the name of by-hash files is their hash
+      return "\"" + file.getName() + "\"";
+    }
+    String sha256 = hashIndex.get(file, size);
+    if (sha256 != null) {
+      return "\"" + sha256 + "\"";
+    }
+    return "W/\"" + Long.toHexString(size) + "-" + Long.toHexString(file.lastModified()) + "\"";
+  }
+
+  private static boolean isImmutable(String relative) {
+    return relative.startsWith(BY_HASH + "/") || relative.contains("/" + BY_HASH + "/");
+  }
+
+  private static boolean matches(String ifNoneMatch, String etag) {
+    String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*")) {
+        return true;
+      }
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals(opaque)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parses a Range header.
+   *
+   * @return {first, last} for a single satisfiable range, an empty array if the header is
+   *         ignored (invalid or several ranges), or null if the range is not satisfiable.
+   */
+  static long[] parseRange(String range, long size) {
+    if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+      return new long[0];
+    }
+    String spec = range.substring(6).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0) {
+      return new long[0];
+    }
+    try {
+      long first;
+      long last;
+      if (dash == 0) {
+        long suffix = Long.parseLong(spec.substring(1));
+        if (suffix <= 0) {
+          return null;
+        }
+        if (size == 0) {
+          return null;
+        }
+        first = Math.max(0, size - suffix);
+        last = size - 1;
+      } else {
+        first = Long.parseLong(spec.substring(0, dash));
+        if (first >= size) {
+          return null;
+        }
+        last = dash == spec.length() - 1 ? size - 1 : Long.parseLong(spec.substring(dash + 1));
+        if (last < first) {
+          return new long[0];
+        }
+        last = Math.min(last, size - 1);
+      }
+      return new long[] {first, last};
+    } catch (NumberFormatException e) {
+      return new long[0];
+    }
+  }
+
+  private static String getContentType(String name) {
+    if (name.endsWith(".deb") || name.endsWith(".udeb")) {
+      return "application/vnd.debian.binary-package";
+    } else if (name.endsWith(".gz")) {
+      return "application/gzip";
+    } else if (name.endsWith(".xz")) {
+      return "application/x-xz";
+    } else if (name.endsWith(".bz2")) {
+      return "application/x-bzip2";
+    } else if (name.endsWith(".zst")) {
+      return "application/zstd";
+    } else if (name.endsWith(".gpg")) {
+      return "application/pgp-signature";
+    } else if (name.equals("Release") || name.equals("InRelease") || name.equals("Packages")
+        || name.equals("Index")) {
+      return "text/plain; charset=utf-8";
+    }
+    return "application/octet-stream";
+  }
+
+  private void sendError(SocketChannel channel, Request request, int status, String reason,
+      boolean keepAlive) throws IOException {
+    Map<String, String> headers = new HashMap<String, String>();
+    headers.put("Content-Type", "text/plain");
+    if (status == 405) {
+      headers.put("Allow", "GET, HEAD");
+    }
+    byte[] body = (status + " " + reason + "\n").getBytes(ASCII);
+    send(channel, status, reason, headers, body.length, keepAlive);
+    if (!"HEAD".equals(request.method)) {
+      write(channel, ByteBuffer.wrap(body));
+    }
+  }
+
+  private void send(SocketChannel channel, int status, String reason,
+      Map<String, String> headers, long contentLength, boolean keepAlive) throws IOException {
+    StringBuilder response = new StringBuilder(256);
+    response.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+    response.append("Date: ").append(formatDate(System.currentTimeMillis())).append("\r\n");
+    response.append("Server: apt-repo\r\n");
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      response.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+    }
+    if (contentLength >= 0) {
+      response.append("Content-Length: ").append(contentLength).append("\r\n");
+    }
+    if (!keepAlive) {
+      response.append("Connection: close\r\n");
+    }
+    response.append("\r\n");
+    write(channel, ByteBuffer.wrap(response.toString().getBytes(ASCII)));
+  }
+
+  private static void write(SocketChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static String formatDate(long time) {
+    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return format.format(new Date(time));
+  }
+
+  /**
+   * Decodes %XX escapes (UTF-8) of a path, returns null for invalid escapes and for control
+   * characters, which no file name of a repository contains.
+   */
+  private static String decode(String path) {
+    if (path.indexOf('%') < 0) {
+      return hasControlCharacter(path) ? null : path;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(path.length());
+    for (int i = 0; i < path.length(); i++) {
+      char c = path.charAt(i);
+      if (c == '%') {
+        if (i + 2 >= path.length()) {
+          return null;
+        }
+        int high = Character.digit(path.charAt(i + 1), 16);
+        int low = Character.digit(path.charAt(i + 2), 16);
+        if (high < 0 || low < 0) {
+          return null;
+        }
+        out.write(high * 16 + low);
+        i += 2;
+      } else {
+        byte[] bytes = String.valueOf(c).getBytes(UTF8);
+        out.write(bytes, 0, bytes.length);
+      }
+    }
+    String decoded = new String(out.toByteArray(), UTF8);
+    return hasControlCharacter(decoded) ? null : decoded;
+  }
+
+  private static boolean hasControlCharacter(String path) {
+    for (int i = 0; i < path.length(); i++) {
+      if (Character.isISOControl(path.charAt(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class Request {
+    private String method;
+    private String target;
+    private String version;
+    private final Map<String, String> headers = new HashMap<String, String>();
+
+    /**
+     * Reads the request line and headers, returns null at the end of the stream.
+     */
+    private static Request read(InputStream in) throws IOException {
+      String line = readLine(in);
+      while (line != null && line.isEmpty()) {
+        line = readLine(in);
+      }
+      if (line == null) {
+        return null;
+      }
+      Request request = new Request();
+      String[] parts = line.split(" ");
+      if (parts.length == 3 && parts[2].startsWith("HTTP/")) {
+        request.method = parts[0];
+        request.target = parts[1];
+        request.version = parts[2];
+      }
+      int total = line.length();
+      while ((line = readLine(in)) != null && !line.isEmpty()) {
+        total += line.length();
+        if (total > MAX_HEADER_SIZE) {
+          request.method = null;
+          return request;
+        }
+        int colon = line.indexOf(':');
+        if (colon > 0) {
+          request.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH),
+              line.substring(colon + 1).trim());
+        }
+      }
+      return request;
+    }
+
+    private boolean isKeepAlive() {
+      String connection = headers.get("connection");
+      if ("HTTP/1.1".equals(version)) {
+        return connection == null || !connection.equalsIgnoreCase("close");
+      }
+      return connection != null && connection.equalsIgnoreCase("keep-alive");
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      StringBuilder line = new StringBuilder();
+      int c;
+      while ((c = in.read()) != -1) {
+        if (c == '\n') {
+          int length = line.length();
+          if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+          }
+          return line.toString();
+        }
+        if (line.length() > MAX_HEADER_SIZE) {
+          throw new IOException("request header too long");
+        }
+        line.append((char) c);
+      }
+      return line.length() == 0 ? null : line.toString();
+    }
+  }
+
+}
@@ -16,7 +16,6 @@
 
 package org.m1theo.apt.repo.signing;
 
-import org.apache.commons.io.LineIterator;
 import org.bouncycastle.bcpg.ArmoredOutputStream;
 import org.bouncycastle.bcpg.BCPGOutputStream;
 import org.bouncycastle.openpgp.*;
@@ -28,21 +27,27 @@ import org.bouncycastle.openpgp.operator.jcajce.JcaKeyFingerprintCalculator;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import java.util.Iterator;
 
 /**
  * Signing with OpenPGP.
+ * <p>
+ * The key is decrypted once by the constructor, each signing operation uses signature generators
+ * of its own, so an instance can sign many files concurrently, see {@link SignerCache}.
  *
  * @author jdeb developers: initial contribution
- * @author Theo Weiss: added clearSignDetached method
+ * @author Theo Weiss: added clearSignDetached and sign methods
  */
 public class PGPSigner {
 
     private static final byte[] EOL = "\n".getBytes(Charset.forName("UTF-8"));
+    private static final int BUFFER_SIZE = 8192;
+    private static final int LINE_SIZE = 256;
 
-    private PGPSecretKey secretKey;
-    private PGPPrivateKey privateKey;
-    private int digest;
+    private final PGPSecretKey secretKey;
+    private final PGPPrivateKey privateKey;
+    private final int digest;
 
     public PGPSigner(InputStream keyring, String keyId, String passphrase, int digest) throws IOException, PGPException {
         secretKey = getSecretKey(keyring, keyId);
@@ -71,36 +76,7 @@ public class PGPSigner {
      * @param output     the output destination of the signature
      */
     public void clearSign(InputStream input, OutputStream output) throws IOException, PGPException, GeneralSecurityException {
-
-        PGPSignatureGenerator signatureGenerator = new PGPSignatureGenerator(new BcPGPContentSignerBuilder(privateKey.getPublicKeyPacket().getAlgorithm(), digest));
-        signatureGenerator.init(PGPSignature.CANONICAL_TEXT_DOCUMENT, privateKey);
-
-        ArmoredOutputStream armoredOutput = new ArmoredOutputStream(output);
-        armoredOutput.beginClearText(digest);
-
-        LineIterator iterator = new LineIterator(new InputStreamReader(input));
-
-        while (iterator.hasNext()) {
-            String line = iterator.nextLine();
-
-            // trailing spaces must be removed for signature calculation (see http://tools.ietf.org/html/rfc4880#section-7.1)
-            byte[] data = trim(line).getBytes("UTF-8");
-
-            armoredOutput.write(data);
-            armoredOutput.write(EOL);
-
-            signatureGenerator.update(data);
-            if (iterator.hasNext()) {
-                signatureGenerator.update(EOL);
-            }
-        }
-
-        armoredOutput.endClearText();
-
-        PGPSignature signature = signatureGenerator.generate();
-        signature.encode(new BCPGOutputStream(armoredOutput));
-
-        armoredOutput.close();
+        sign(input, output, null);
     }
 
     /**
@@ -120,30 +96,110 @@ public class PGPSigner {
      * @param output     the output destination of the signature
      */
     public void clearSignDetached(InputStream input, OutputStream output) throws IOException, PGPException, GeneralSecurityException {
+        sign(input, null, output);
+    }
 
-        PGPSignatureGenerator signatureGenerator = new PGPSignatureGenerator(new BcPGPContentSignerBuilder(privateKey.getPublicKeyPacket().getAlgorithm(), digest));
-        signatureGenerator.init(PGPSignature.CANONICAL_TEXT_DOCUMENT, privateKey);
-
-        ArmoredOutputStream armoredOutput = new ArmoredOutputStream(output);
+    /**
+     * Creates the clear sign and the detached signature of the input data in a single pass, as
+     * needed for the InRelease and Release.gpg files. The input is canonicalised once on the bytes,
+     * line by line, without decoding it.
+     * <p>
+     * The clear signed text ends before the line break of its last line and has no trailing
+     * spaces, while a detached text signature covers the whole input, so the two signatures are
+     * computed side by side from the same lines.
+     *
+     * @param input        the content to be signed
+     * @param clearSigned  the output destination of the clear signed content, or null
+     * @param detached     the output destination of the detached signature, or null
+     */
+    public void sign(InputStream input, OutputStream clearSigned, OutputStream detached) throws IOException, PGPException, GeneralSecurityException {
+        PGPSignatureGenerator clearGenerator = null;
+        ArmoredOutputStream clearOutput = null;
+        if (clearSigned != null) {
+            clearGenerator = createSignatureGenerator();
+            clearOutput = new ArmoredOutputStream(clearSigned);
+            clearOutput.beginClearText(digest);
+        }
+        PGPSignatureGenerator detachedGenerator = detached != null ? createSignatureGenerator() : null;
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] line = new byte[LINE_SIZE];
+        int length = 0;
+        boolean first = true;
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            int start = 0;
+            for (int i = 0; i < count; i++) {
+                if (buffer[i] == '\n') {
+                    line = append(line, length, buffer, start, i - start);
+                    length += i - start;
+                    writeLine(line, length, first, true, clearGenerator, clearOutput, detachedGenerator);
+                    first = false;
+                    length = 0;
+                    start = i + 1;
+                }
+            }
+            line = append(line, length, buffer, start, count - start);
+            length += count - start;
+        }
+        if (length > 0) {
+            writeLine(line, length, first, false, clearGenerator, clearOutput, detachedGenerator);
+        }
 
-        LineIterator iterator = new LineIterator(new InputStreamReader(input));
+        if (clearOutput != null) {
+            clearOutput.endClearText();
+            clearGenerator.generate().encode(new BCPGOutputStream(clearOutput));
+            clearOutput.close();
+        }
+        if (detachedGenerator != null) {
+            ArmoredOutputStream detachedOutput = new ArmoredOutputStream(detached);
+            detachedGenerator.generate().encode(new BCPGOutputStream(detachedOutput));
+            detachedOutput.close();
+        }
+    }
 
-        while (iterator.hasNext()) {
-            String line = iterator.nextLine();
+    private PGPSignatureGenerator createSignatureGenerator() throws PGPException {
+        PGPSignatureGenerator signatureGenerator = new PGPSignatureGenerator(new BcPGPContentSignerBuilder(privateKey.getPublicKeyPacket().getAlgorithm(), digest));
+        signatureGenerator.init(PGPSignature.CANONICAL_TEXT_DOCUMENT, privateKey);
+        return signatureGenerator;
+    }
 
+    /**
+     * Writes a line without its line break to the signatures and the clear signed output. Only the
+     * clear signed text is trimmed, a detached signature covers the line as is.
+     *
+     * @param terminated true if the line was followed by a line break in the input
+     */
+    private void writeLine(byte[] line, int length, boolean first, boolean terminated,
+            PGPSignatureGenerator clearGenerator, ArmoredOutputStream clearOutput,
+            PGPSignatureGenerator detachedGenerator) throws IOException {
+        if (clearOutput != null) {
             // trailing spaces must be removed for signature calculation (see http://tools.ietf.org/html/rfc4880#section-7.1)
-            byte[] data = trim(line).getBytes("UTF-8");
-
-            signatureGenerator.update(data);
-            if (iterator.hasNext()) {
-                signatureGenerator.update(EOL);
+            int trimmed = trim(line, length);
+            if (!first) {
+                clearGenerator.update(EOL);
             }
+            clearGenerator.update(line, 0, trimmed);
+            clearOutput.write(line, 0, trimmed);
+            clearOutput.write(EOL);
         }
+        if (detachedGenerator != null) {
+            detachedGenerator.update(line, 0, length);
+            if (terminated) {
+                detachedGenerator.update(EOL);
+            }
+        }
+    }
 
-        PGPSignature signature = signatureGenerator.generate();
-        signature.encode(new BCPGOutputStream(armoredOutput));
-
-        armoredOutput.close();
+    /**
+     * Appends data to the line, growing it if needed.
+     */
+    private static byte[] append(byte[] line, int length, byte[] data, int offset, int count) {
+        if (length + count > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+        }
+        System.arraycopy(data, offset, line, length, count);
+        return line;
     }
 
     /**
@@ -193,18 +249,17 @@ public class PGPSigner {
      * Trim the trailing spaces.
      *
      * @param line
+     * @param length the length of the line
+     * @return the length without trailing spaces, tabs and carriage returns.
      */
-    private String trim(String line) {
-        char[] chars = line.toCharArray();
-        int len = chars.length;
-
-        while (len > 0) {
-            if (!Character.isWhitespace(chars[len - 1])) {
+    private static int trim(byte[] line, int length) {
+        while (length > 0) {
+            byte b = line[length - 1];
+            if (b != ' ' && b != '\t' && b != '\r') {
                 break;
             }
-            len--;
+            length--;
         }
-
-        return line.substring(0, len);
+        return length;
     }
 }
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.signing;
+
+import org.bouncycastle.openpgp.PGPException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the {@link PGPSigner}s, i.e. the decrypted signing keys, for the lifetime of the class
+ * loader: the Maven session, or the whole process when running as daemon or from the command
+ * line. Parsing the keyring and decrypting the key with the passphrase is done once per keyring,
+ * key and digest; a changed keyring file or a different passphrase loads the key again. The keys
+ * are held in memory only and the passphrase is not kept, only a hash of it. Thread-safe.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public final class SignerCache {
+  private static final Map<String, Entry> SIGNERS = new HashMap<String, Entry>();
+
+  private SignerCache() {}
+
+  /**
+   * Returns the signer for a key, loading it if it is not cached. Concurrent requests for the same
+   * key wait for a single load.
+   *
+   * @param keyring the keyring file
+   * @param keyId the 4 bytes identifier of the key
+   * @param passphrase the passphrase of the key
+   * @param digest the digest algorithm, see {@link org.bouncycastle.bcpg.HashAlgorithmTags}
+   * @return the {@link PGPSigner}, to be shared by all threads.
+   * @throws IOException if the keyring cannot be read
+   * @throws PGPException if the key does not exist or cannot be decrypted
+   */
+  public static PGPSigner getSigner(File keyring, String keyId, String passphrase, int digest)
+      throws IOException, PGPException {
+    String name = keyring.getCanonicalPath() + "\n" + keyId.toLowerCase() + "\n" + digest;
+    Entry entry;
+    synchronized (SIGNERS) {
+      entry = SIGNERS.get(name);
+      if (entry == null) {
+        entry = new Entry();
+        SIGNERS.put(name, entry);
+      }
+    }
+    byte[] passphraseHash = hash(passphrase);
+    synchronized (entry) {
+      if (entry.signer == null || entry.lastModified != keyring.lastModified()
+          || entry.length != keyring.length()
+          || !Arrays.equals(entry.passphraseHash, passphraseHash)) {
+        entry.signer = null;
+        long lastModified = keyring.lastModified();
+        long length = keyring.length();
+        InputStream input = new FileInputStream(keyring);
+        try {
+          entry.signer = new PGPSigner(input, keyId, passphrase, digest);
+        } finally {
+          input.close();
+        }
+        entry.lastModified = lastModified;
+        entry.length = length;
+        entry.passphraseHash = passphraseHash;
+      }
+      return entry.signer;
+    }
+  }
+
+  /**
+   * Drops all cached keys.
+   */
+  public static void clear() {
+    synchronized (SIGNERS) {
+      SIGNERS.clear();
+    }
+  }
+
+  private static byte[] hash(String passphrase) throws PGPException {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(passphrase.getBytes("UTF-8"));
+    } catch (NoSuchAlgorithmException e) {
+      throw new PGPException("could not hash passphrase", e);
+    } catch (IOException e) {
+      throw new PGPException("could not hash passphrase", e);
+    }
+  }
+
+  private static class Entry {
+    private PGPSigner signer;
+    private long lastModified;
+    private long length;
+    private byte[] passphraseHash;
+  }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Base class for compressors which split the data into blocks, compress the blocks on the
+ * threads of an executor and write the results in the original order.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public abstract class BlockCompressorOutputStream extends OutputStream {
+  private final OutputStream out;
+  private final ExecutorService executor;
+  private final int maxPending;
+  private final int blockSize;
+  private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+  private byte[] buffer;
+  private int count;
+  private boolean headerWritten;
+  private boolean closed;
+
+  /**
+   * @param out the stream receiving the compressed data
+   * @param executor the executor running the compression tasks
+   * @param threads the number of threads of executor, limits the number of buffered blocks
+   * @param blockSize the size of the uncompressed blocks
+   */
+  protected BlockCompressorOutputStream(OutputStream out, ExecutorService executor, int threads,
+      int blockSize) {
+    this.out = out;
+    this.executor = executor;
+    this.maxPending = Math.max(2, 2 * threads);
+    this.blockSize = blockSize;
+    this.buffer = new byte[blockSize];
+  }
+
+  /**
+   * Writes the data preceding the first block.
+   */
+  protected void writeHeader(OutputStream out) throws IOException {}
+
+  /**
+   * Writes the data following the last block.
+   */
+  protected void writeTrailer(OutputStream out) throws IOException {}
+
+  /**
+   * Creates the task compressing a block. Called on the writing thread, in block order. The
+   * block array is not modified afterwards.
+   *
+   * @param block the uncompressed data
+   * @param length the number of valid bytes in block
+   * @param last true for the last block of the stream
+   * @return a task returning the compressed block.
+   */
+  protected abstract Callable<byte[]> createTask(byte[] block, int length, boolean last);
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("stream closed");
+    }
+    while (len > 0) {
+      int n = Math.min(len, blockSize - count);
+      System.arraycopy(b, off, buffer, count, n);
+      count += n;
+      off += n;
+      len -= n;
+      if (count == blockSize) {
+        submit(false);
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      submit(true);
+      while (!pending.isEmpty()) {
+        writeNext();
+      }
+      writeTrailer(out);
+    } finally {
+      for (Future<byte[]> future : pending) {
+        future.cancel(true);
+      }
+      out.close();
+    }
+  }
+
+  private void submit(boolean last) throws IOException {
+    if (!headerWritten) {
+      writeHeader(out);
+      headerWritten = true;
+    }
+    pending.add(executor.submit(createTask(buffer, count, last)));
+    buffer = last ? null : new byte[blockSize];
+    count = 0;
+    while (pending.size() > maxPending) {
+      writeNext();
+    }
+  }
+
+  private void writeNext() throws IOException {
+    Future<byte[]> future = pending.removeFirst();
+    try {
+      out.write(future.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while compressing");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("compressing block failed", e.getCause());
+    }
+  }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Compression formats for index files.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public enum Compression {
+  NONE("", 0, 0), GZIP(".gz", 6, 9), XZ(".xz", 6, 9), BZIP2(".bz2", 9, 9), ZSTD(".zst", 3, 19);
+
+  private final String extension;
+  private final int defaultLevel;
+  private final int maxLevel;
+
+  private Compression(String extension, int defaultLevel, int maxLevel) {
+    this.extension = extension;
+    this.defaultLevel = defaultLevel;
+    this.maxLevel = maxLevel;
+  }
+
+  /**
+   * Returns the file name extension including the dot, an empty string for {@link #NONE}.
+   *
+   * @return String
+   */
+  public String getExtension() {
+    return extension;
+  }
+
+  /**
+   * Wraps out with a compressing stream.
+   *
+   * @param out the stream receiving the compressed data
+   * @param max true to use the strongest compression level instead of the default level
+   * @return the compressing stream.
+   * @throws IOException
+   */
+  public OutputStream compress(OutputStream out, boolean max) throws IOException {
+    return compress(out, max, null, 1);
+  }
+
+  /**
+   * Wraps out with a compressing stream. If an executor with more than one thread is given, gzip
+   * and xz data is compressed block-wise in parallel.
+   *
+   * @param out the stream receiving the compressed data
+   * @param max true to use the strongest compression level instead of the default level
+   * @param executor the executor for parallel compression, may be null
+   * @param threads the number of threads of executor
+   * @return the compressing stream.
+   * @throws IOException
+   */
+  public OutputStream compress(OutputStream out, boolean max, ExecutorService executor,
+      int threads) throws IOException {
+    int level = max ? maxLevel : defaultLevel;
+    boolean parallel = executor != null && threads > 1;
+    switch (this) {
+      case NONE:
+        return out;
+      case GZIP:
+        if (parallel) {
+          return new ParallelGzipOutputStream(out, level, executor, threads);
+        }
+        GzipParameters parameters = new GzipParameters();
+        parameters.setCompressionLevel(level);
+        return new GzipCompressorOutputStream(out, parameters);
+      case XZ:
+        try {
+          if (parallel) {
+            return new ParallelXzOutputStream(out, new LZMA2Options(level), executor, threads);
+          }
+          return new XZOutputStream(out, new LZMA2Options(level));
+        } catch (UnsupportedOptionsException e) {
+          throw new IOException(e);
+        }
+      case BZIP2:
+        return new BZip2CompressorOutputStream(out, level);
+      case ZSTD:
+        return new ZstdCompressorOutputStream(out, level);
+      default:
+        throw new IOException("unknown compression: " + this);
+    }
+  }
+
+  /**
+   * Returns the compression for a name like "gz", "xz", "bz2", "zst" or "none". The enum names
+   * are accepted as well.
+   *
+   * @param name the name of the compression
+   * @return the {@link Compression}.
+   * @throws MojoExecutionException if the name is unknown
+   */
+  public static Compression fromName(String name) throws MojoExecutionException {
+    String n = name.trim().toLowerCase(Locale.ENGLISH);
+    if (n.startsWith(".")) {
+      n = n.substring(1);
+    }
+    for (Compression compression : values()) {
+      if (n.equals(compression.name().toLowerCase(Locale.ENGLISH))
+          || (!compression.extension.isEmpty() && n.equals(compression.extension.substring(1)))) {
+        return compression;
+      }
+    }
+    throw new MojoExecutionException("unknown compression: " + name);
+  }
+
+}
@@ -11,6 +11,8 @@ package org.m1theo.apt.repo.utils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.m1theo.apt.repo.packages.PackageEntry;
 
+import java.nio.charset.Charset;
+
 /**
  * Parses the control file.
  * 
@@ -19,10 +21,20 @@ import org.m1theo.apt.repo.packages.PackageEntry;
  * 
  */
 public class ControlHandler {
-  private String controlContent;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private byte[] controlContent;
 
   public void setControlContent(String controlContent) {
-    this.controlContent = controlContent.trim();
+    this.controlContent = controlContent.getBytes(UTF8);
+  }
+
+  /**
+   * Sets the control file as read from the deb file, it is parsed without decoding it first.
+   *
+   * @param controlContent the bytes of the control file
+   */
+  public void setControlContent(byte[] controlContent) {
+    this.controlContent = controlContent;
   }
 
   /**
@@ -38,39 +50,21 @@ public class ControlHandler {
     if (controlContent == null) {
       throw new MojoExecutionException("no controlContent to parse");
     }
-    String[] lines = controlContent.split("\\r?\\n");
-    for (int i = 0; i < lines.length; i++) {
-      String line = lines[i];
-      String[] stmt = line.split(":", 2);
-      if (stmt.length != 2) {
-        continue;
-      }
-      String key = stmt[0].trim();
-      String value = stmt[1].trim();
-      if (key.equals("Package")) {
-        packageEntry.setPackageName(value);
-      } else if (key.equals("Version")) {
-        packageEntry.setVersion(value);
-      } else if (key.equals("Architecture")) {
-        packageEntry.setArchitecture(value);
-      } else if (key.equals("Maintainer")) {
-        packageEntry.setMaintainer(value);
-      } else if (key.equals("Installed-Size")) {
-        packageEntry.setInstalled_size(value);
-      } else if (key.equals("Depends")) {
-        packageEntry.setDepends(value);
-      } else if (key.equals("Section")) {
-        packageEntry.setSection(value);
-      } else if (key.equals("Priority")) {
-        packageEntry.setPriority(value);
-      } else if (key.equals("Description")) {
-        packageEntry.setDescription(value);
-      }
+    ControlStanza stanza = ControlStanza.parse(controlContent, 0, controlContent.length);
+    // the other fields are only written from the raw stanza, so they are not kept as strings
+    packageEntry.setPackageName(stanza.get("Package"));
+    packageEntry.setVersion(stanza.get("Version"));
+    packageEntry.setArchitecture(stanza.get("Architecture"));
+    packageEntry.setSection(stanza.get("Section"));
+    if (packageEntry.getPackageName() == null) {
+      throw new MojoExecutionException("control file has no Package field");
     }
+    packageEntry.setControl(stanza.getData());
   }
 
   /**
-   * Parse the control file contents and update the {@link PackageEntry}.
+   * Parse the control file contents and update the {@link PackageEntry}. All fields of the control
+   * file are kept for the Packages file, see {@link PackageEntry#setControl(byte[])}.
    * 
    * @param packageEntry
    * @throws MojoExecutionException
@@ -0,0 +1,243 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A control file stanza (RFC 822 style fields with continuation lines), parsed directly on the
+ * bytes of the control file. All fields are kept with their continuation lines in their original
+ * order and spelling; only the fields computed for the Packages file (Filename, Size and the
+ * hashes), comments, lines without a field name and carriage returns are dropped. The kept lines
+ * are copied into a single buffer, the fields are recorded as offsets into it, so parsing
+ * allocates the same two arrays regardless of the number of lines.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class ControlStanza {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  /** Fields of the Packages file which are computed from the deb file, not taken from control. */
+  private static final String[] COMPUTED_FIELDS =
+      {"Filename", "Size", "MD5sum", "SHA1", "SHA256", "SHA512"};
+  private static final int NAME_START = 0;
+  private static final int NAME_END = 1;
+  private static final int VALUE_START = 2;
+  private static final int VALUE_END = 3;
+  private static final int SLOTS = 4;
+
+  private final byte[] data;
+  private final int[] offsets;
+  private final int count;
+
+  private ControlStanza(byte[] data, int[] offsets, int count) {
+    this.data = data;
+    this.offsets = offsets;
+    this.count = count;
+  }
+
+  /**
+   * Parses the first stanza of a control file. Leading empty lines are skipped, the stanza ends at
+   * the next empty line or at the end of the buffer.
+   *
+   * @param buffer the control file
+   * @param offset the start of the control file in buffer
+   * @param length the length of the control file
+   * @return the {@link ControlStanza}.
+   * @throws MojoExecutionException if the stanza has no fields
+   */
+  public static ControlStanza parse(byte[] buffer, int offset, int length)
+      throws MojoExecutionException {
+    int end = offset + length;
+    byte[] out = new byte[length + 1];
+    int o = 0;
+    int[] offsets = new int[SLOTS * 16];
+    int count = 0;
+    // true while continuation lines belong to a kept field
+    boolean inField = false;
+    boolean started = false;
+    int pos = offset;
+    while (pos < end) {
+      int lineStart = pos;
+      int lineEnd = lineStart;
+      while (lineEnd < end && buffer[lineEnd] != '\n') {
+        lineEnd++;
+      }
+      pos = lineEnd + 1;
+      if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+        lineEnd--;
+      }
+      if (isBlank(buffer, lineStart, lineEnd)) {
+        if (started) {
+          break;
+        }
+        continue;
+      }
+      started = true;
+      byte first = buffer[lineStart];
+      if (first == ' ' || first == '\t') {
+        if (inField) {
+          o = copyLine(buffer, lineStart, lineEnd, out, o);
+          offsets[(count - 1) * SLOTS + VALUE_END] = o - 1;
+        }
+        continue;
+      }
+      inField = false;
+      if (first == '#') {
+        continue;
+      }
+      int colon = lineStart;
+      while (colon < lineEnd && buffer[colon] != ':') {
+        colon++;
+      }
+      int nameEnd = colon;
+      while (nameEnd > lineStart && isSpace(buffer[nameEnd - 1])) {
+        nameEnd--;
+      }
+      if (colon == lineEnd || nameEnd == lineStart || isComputed(buffer, lineStart, nameEnd)) {
+        continue;
+      }
+      int valueStart = colon + 1;
+      while (valueStart < lineEnd && isSpace(buffer[valueStart])) {
+        valueStart++;
+      }
+      if (count * SLOTS == offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      int field = count * SLOTS;
+      offsets[field + NAME_START] = o;
+      offsets[field + NAME_END] = o + nameEnd - lineStart;
+      offsets[field + VALUE_START] = o + valueStart - lineStart;
+      o = copyLine(buffer, lineStart, lineEnd, out, o);
+      offsets[field + VALUE_END] = o - 1;
+      count++;
+      inField = true;
+    }
+    if (count == 0) {
+      throw new MojoExecutionException("control file has no fields");
+    }
+    return new ControlStanza(Arrays.copyOf(out, o), offsets, count);
+  }
+
+  /**
+   * Copies a line without its line end and appends a newline.
+   */
+  private static int copyLine(byte[] buffer, int start, int end, byte[] out, int o) {
+    System.arraycopy(buffer, start, out, o, end - start);
+    o += end - start;
+    out[o++] = '\n';
+    return o;
+  }
+
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t';
+  }
+
+  private static boolean isBlank(byte[] buffer, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!isSpace(buffer[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isComputed(byte[] buffer, int start, int end) {
+    for (String name : COMPUTED_FIELDS) {
+      if (equalsIgnoreCase(buffer, start, end, name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Compares ASCII field names case-insensitively, as field names in control files are.
+   */
+  private static boolean equalsIgnoreCase(byte[] buffer, int start, int end, String name) {
+    if (end - start != name.length()) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      int a = buffer[start + i];
+      int b = name.charAt(i);
+      if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the kept lines of the stanza, each terminated by a newline, ready to be written to a
+   * Packages file.
+   *
+   * @return the stanza; the array is shared, do not modify it.
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * @return the number of fields.
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Returns the name of a field.
+   *
+   * @param index the index of the field
+   * @return the name as written in the control file.
+   */
+  public String getName(int index) {
+    int field = index * SLOTS;
+    return new String(data, offsets[field + NAME_START],
+        offsets[field + NAME_END] - offsets[field + NAME_START], UTF8);
+  }
+
+  /**
+   * Returns the value of a field, including its continuation lines (joined by newlines, with
+   * their leading space) but without trailing whitespace.
+   *
+   * @param index the index of the field
+   * @return the value.
+   */
+  public String getValue(int index) {
+    int field = index * SLOTS;
+    int start = offsets[field + VALUE_START];
+    int end = offsets[field + VALUE_END];
+    while (end > start && isSpace(data[end - 1])) {
+      end--;
+    }
+    return new String(data, start, Math.max(0, end - start), UTF8);
+  }
+
+  /**
+   * Returns the value of the first field with the given name.
+   *
+   * @param name the field name, compared case-insensitively
+   * @return the value as returned by {@link #getValue(int)}, or null if there is no such field.
+   */
+  public String get(String name) {
+    for (int i = 0; i < count; i++) {
+      int field = i * SLOTS;
+      if (equalsIgnoreCase(data, offsets[field + NAME_START], offsets[field + NAME_END], name)) {
+        return getValue(i);
+      }
+    }
+    return null;
+  }
+
+}
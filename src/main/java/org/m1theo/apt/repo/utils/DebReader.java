@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.lzma.LZMACompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the members of a deb file. The ar headers are parsed directly, so only the requested
+ * member is read and decompressed, and only up to the requested tar entry.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class DebReader {
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  private static final byte[] AR_MAGIC = "!<arch>\n".getBytes(ASCII);
+  private static final int AR_HEADER_SIZE = 60;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final String CONTROL_MEMBER = "control.tar";
+  private static final String CONTROL_FILE_NAME = "./control";
+  private static final String DATA_MEMBER = "data.tar";
+
+  /**
+   * Returns the contents of the control file of a deb file. The control member may be
+   * uncompressed or compressed with gzip, xz, zstd, bzip2 or lzma.
+   *
+   * @param deb the deb file
+   * @return the contents of ./control or null if the control member has no control file.
+   * @throws IOException if the file is not a valid deb file or has no control member
+   */
+  public static byte[] readControl(File deb) throws IOException {
+    FileChannel channel = FileChannel.open(deb.toPath(), StandardOpenOption.READ);
+    try {
+      Member member = findMember(channel, CONTROL_MEMBER);
+      if (member == null) {
+        throw new IOException("no " + CONTROL_MEMBER + " member found in " + deb.getName());
+      }
+      TarArchiveInputStream tar = new TarArchiveInputStream(openMember(channel, member));
+      try {
+        TarArchiveEntry entry;
+        while ((entry = tar.getNextTarEntry()) != null) {
+          if (isControlFile(entry.getName())) {
+            return IOUtils.toByteArray(tar);
+          }
+        }
+        return null;
+      } finally {
+        // releases the native inflater and zstd contexts, the channel stays open
+        tar.close();
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Lists the files of the data member of a deb file, as needed for the Contents index. Only the
+   * tar headers are evaluated, the file contents are skipped. Directories are omitted, names are
+   * relative to the root directory.
+   *
+   * @param deb the deb file
+   * @return the names of all non-directory entries in archive order.
+   * @throws IOException if the file is not a valid deb file or has no data member
+   */
+  public static List<String> listData(File deb) throws IOException {
+    FileChannel channel = FileChannel.open(deb.toPath(), StandardOpenOption.READ);
+    try {
+      Member member = findMember(channel, DATA_MEMBER);
+      if (member == null) {
+        throw new IOException("no " + DATA_MEMBER + " member found in " + deb.getName());
+      }
+      List<String> names = new ArrayList<String>();
+      TarArchiveInputStream tar = new TarArchiveInputStream(openMember(channel, member));
+      try {
+        TarArchiveEntry entry;
+        while ((entry = tar.getNextTarEntry()) != null) {
+          if (entry.isDirectory()) {
+            continue;
+          }
+          String name = entry.getName();
+          if (name.startsWith("./")) {
+            name = name.substring(2);
+          } else if (name.startsWith("/")) {
+            name = name.substring(1);
+          }
+          if (!name.isEmpty()) {
+            names.add(name);
+          }
+        }
+        return names;
+      } finally {
+        tar.close();
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static boolean isControlFile(String name) {
+    return name.equals(CONTROL_FILE_NAME) || name.equals(CONTROL_FILE_NAME.substring(2));
+  }
+
+  /**
+   * Finds the first ar member whose name starts with prefix.
+   */
+  static Member findMember(FileChannel channel, String prefix) throws IOException {
+    ByteBuffer magic = ByteBuffer.allocate(AR_MAGIC.length);
+    readFully(channel, magic, 0);
+    if (!ByteBuffer.wrap(AR_MAGIC).equals(magic)) {
+      throw new IOException("not an ar archive");
+    }
+    long position = AR_MAGIC.length;
+    long end = channel.size();
+    ByteBuffer header = ByteBuffer.allocate(AR_HEADER_SIZE);
+    while (position + AR_HEADER_SIZE <= end) {
+      header.clear();
+      readFully(channel, header, position);
+      byte[] h = header.array();
+      if (h[58] != '`' || h[59] != '\n') {
+        throw new IOException("invalid ar header at offset " + position);
+      }
+      String name = new String(h, 0, 16, ASCII).trim();
+      if (name.endsWith("/")) {
+        name = name.substring(0, name.length() - 1);
+      }
+      long size;
+      try {
+        size = Long.parseLong(new String(h, 48, 10, ASCII).trim());
+      } catch (NumberFormatException e) {
+        throw new IOException("invalid ar member size at offset " + position);
+      }
+      if (name.startsWith(prefix)) {
+        return new Member(name, position + AR_HEADER_SIZE, size);
+      }
+      // members are aligned to even offsets
+      position += AR_HEADER_SIZE + size + (size & 1);
+    }
+    return null;
+  }
+
+  /**
+   * Opens the decompressed contents of an ar member. Closing the stream releases the
+   * decompressor but leaves channel open.
+   */
+  static InputStream openMember(FileChannel channel, Member member) throws IOException {
+    channel.position(member.offset);
+    BoundedInputStream bounded =
+        new BoundedInputStream(Channels.newInputStream(channel), member.size);
+    bounded.setPropagateClose(false);
+    InputStream in = new BufferedInputStream(bounded, BUFFER_SIZE);
+    String compression = member.name.substring(member.name.lastIndexOf(".tar") + 4);
+    if (compression.isEmpty()) {
+      return in;
+    } else if (compression.equals(".gz")) {
+      return new GZIPInputStream(in, BUFFER_SIZE);
+    } else if (compression.equals(".xz")) {
+      return new XZCompressorInputStream(in);
+    } else if (compression.equals(".zst")) {
+      return new ZstdCompressorInputStream(in);
+    } else if (compression.equals(".bz2")) {
+      return new BZip2CompressorInputStream(in);
+    } else if (compression.equals(".lzma")) {
+      return new LZMACompressorInputStream(in);
+    }
+    throw new IOException("unsupported compression of member " + member.name);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException("unexpected end of ar archive");
+      }
+    }
+    buffer.flip();
+  }
+
+  static class Member {
+    final String name;
+    final long offset;
+    final long size;
+
+    Member(String name, long offset, long size) {
+      this.name = name;
+      this.offset = offset;
+      this.size = size;
+    }
+  }
+
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds files with the same content, e.g. a deb file attached by several modules or under several
+ * classifiers. Files are compared by size first, then by a hash of their first and last
+ * {@value #PARTIAL_SIZE} bytes, and only if these match by a hash of the whole content, so files
+ * which differ are mostly told apart without reading them completely.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class DuplicateFilter {
+  /** Bytes hashed at the start and at the end of a file by the partial hash. */
+  static final int PARTIAL_SIZE = 64 * 1024;
+
+  private final Metrics metrics;
+  private final Log log;
+
+  /**
+   * @param metrics the {@link Metrics} to record the bytes read for hashing to, or null
+   * @param log the logger to use
+   */
+  public DuplicateFilter(Metrics metrics, Log log) {
+    this.metrics = metrics;
+    this.log = log;
+  }
+
+  /**
+   * Returns the files without the ones whose content equals the one of a file before them,
+   * including files given more than once.
+   *
+   * @param files the files
+   * @return the first file of each distinct content, in the order of files.
+   * @throws MojoExecutionException if a file cannot be read
+   */
+  public List<File> filter(List<File> files) throws MojoExecutionException {
+    Map<String, File> byPath = new LinkedHashMap<String, File>();
+    for (File file : files) {
+      String path = getCanonicalPath(file);
+      if (!byPath.containsKey(path)) {
+        byPath.put(path, file);
+      }
+    }
+    Map<Long, List<File>> bySize = new LinkedHashMap<Long, List<File>>();
+    for (File file : byPath.values()) {
+      List<File> sameSize = bySize.get(file.length());
+      if (sameSize == null) {
+        sameSize = new ArrayList<File>(1);
+        bySize.put(file.length(), sameSize);
+      }
+      sameSize.add(file);
+    }
+    Map<File, File> duplicates = new HashMap<File, File>();
+    for (List<File> sameSize : bySize.values()) {
+      if (sameSize.size() > 1) {
+        findDuplicates(sameSize, duplicates);
+      }
+    }
+    int skipped = files.size() - byPath.size() + duplicates.size();
+    if (skipped == 0) {
+      return files;
+    }
+    List<File> unique = new ArrayList<File>(byPath.size() - duplicates.size());
+    for (File file : byPath.values()) {
+      File original = duplicates.get(file);
+      if (original == null) {
+        unique.add(file);
+      } else {
+        log.debug("skipping " + file + ", same content as " + original);
+      }
+    }
+    log.info("skipped " + skipped + " files with the same content as others");
+    return unique;
+  }
+
+  /**
+   * Adds the files of sameSize that duplicate an earlier one to duplicates, mapped to the first
+   * file with their content.
+   */
+  private void findDuplicates(List<File> sameSize, Map<File, File> duplicates)
+      throws MojoExecutionException {
+    Map<String, List<File>> byPartialHash = new LinkedHashMap<String, List<File>>();
+    for (File file : sameSize) {
+      String partialHash = getPartialHash(file);
+      List<File> candidates = byPartialHash.get(partialHash);
+      if (candidates == null) {
+        candidates = new ArrayList<File>(1);
+        byPartialHash.put(partialHash, candidates);
+      }
+      candidates.add(file);
+    }
+    for (List<File> candidates : byPartialHash.values()) {
+      if (candidates.size() == 1) {
+        continue;
+      }
+      File first = candidates.get(0);
+      if (first.length() <= 2L * PARTIAL_SIZE) {
+        // the partial hash covered the whole content
+        for (File file : candidates.subList(1, candidates.size())) {
+          duplicates.put(file, first);
+        }
+        continue;
+      }
+      Map<String, File> byHash = new HashMap<String, File>();
+      for (File file : candidates) {
+        String hash = getHash(file);
+        File original = byHash.get(hash);
+        if (original == null) {
+          byHash.put(hash, file);
+        } else {
+          duplicates.put(file, original);
+        }
+      }
+    }
+  }
+
+  /**
+   * Compares the content of two files with the same pre-filters as {@link #filter(List)}.
+   *
+   * @param a a file
+   * @param b another file
+   * @return true if both files have the same content.
+   * @throws MojoExecutionException if a file cannot be read
+   */
+  public boolean isSameContent(File a, File b) throws MojoExecutionException {
+    if (a.length() != b.length()) {
+      return false;
+    }
+    if (!getPartialHash(a).equals(getPartialHash(b))) {
+      return false;
+    }
+    return a.length() <= 2L * PARTIAL_SIZE || getHash(a).equals(getHash(b));
+  }
+
+  /**
+   * Returns the SHA-256 of the first and the last {@link #PARTIAL_SIZE} bytes of file.
+   */
+  private String getPartialHash(File file) throws MojoExecutionException {
+    long start = Metrics.now();
+    try {
+      MessageDigest digest = MessageDigest.getInstance(Hashes.SHA256.toString());
+      RandomAccessFile input = new RandomAccessFile(file, "r");
+      long read = 0;
+      try {
+        long length = input.length();
+        byte[] buffer = new byte[(int) Math.min(PARTIAL_SIZE, length)];
+        input.readFully(buffer);
+        digest.update(buffer);
+        read += buffer.length;
+        long tail = Math.max(buffer.length, length - PARTIAL_SIZE);
+        if (tail < length) {
+          buffer = new byte[(int) (length - tail)];
+          input.seek(tail);
+          input.readFully(buffer);
+          digest.update(buffer);
+          read += buffer.length;
+        }
+      } finally {
+        input.close();
+      }
+      if (metrics != null) {
+        metrics.record(Metrics.DEDUPLICATION, start, read, 0, 0);
+      }
+      return new String(Hex.encodeHex(digest.digest()));
+    } catch (NoSuchAlgorithmException e) {
+      throw new MojoExecutionException("could not create digest", e);
+    } catch (IOException e) {
+      throw new MojoExecutionException("could not read " + file, e);
+    }
+  }
+
+  private String getHash(File file) throws MojoExecutionException {
+    long start = Metrics.now();
+    String hash = Utils.getDigest(Hashes.SHA256.toString(), file);
+    if (metrics != null) {
+      metrics.record(Metrics.DEDUPLICATION, start, file.length(), 0, 1);
+    }
+    return hash;
+  }
+
+  private static String getCanonicalPath(File file) throws MojoExecutionException {
+    try {
+      return file.getCanonicalPath();
+    } catch (IOException e) {
+      throw new MojoExecutionException("invalid path " + file, e);
+    }
+  }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes all data to the underlying stream while computing its size and {@link Hashes}.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class HashingOutputStream extends FilterOutputStream {
+  private final MultiDigest digest;
+  private final byte[] single = new byte[1];
+
+  public HashingOutputStream(OutputStream out) throws MojoExecutionException {
+    super(out);
+    this.digest = new MultiDigest();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    single[0] = (byte) b;
+    write(single, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    digest.update(b, off, len);
+  }
+
+  /**
+   * Returns the number of bytes written so far.
+   *
+   * @return long
+   */
+  public long getLength() {
+    return digest.getLength();
+  }
+
+  /**
+   * Returns the digests of all data written. Must only be called after the stream is complete.
+   *
+   * @return {@link DefaultHashes}
+   * @throws MojoExecutionException
+   */
+  public DefaultHashes getHashes() throws MojoExecutionException {
+    return digest.getHashes();
+  }
+
+}
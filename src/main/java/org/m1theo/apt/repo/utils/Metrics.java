@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Wall time, bytes read and written and file counts of the phases of a build, and the time spent
+ * on each deb file. Phases running on several threads (hashing, decoding, contents scan) report
+ * the sum over all threads. All methods are thread-safe.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class Metrics {
+  public static final String DEDUPLICATION = "deduplication";
+  public static final String STAGING = "staging";
+  public static final String LISTING = "listing";
+  public static final String CACHE = "cache";
+  public static final String HASHING = "hashing";
+  public static final String DECODING = "decoding";
+  public static final String CONTENTS_SCAN = "contents-scan";
+  public static final String RENDERING = "rendering";
+  public static final String COMPRESSION = "compression";
+  public static final String CONTENTS_INDEX = "contents-index";
+  public static final String RELEASE = "release";
+  public static final String SIGNING = "signing";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final double MB = 1024 * 1024;
+  private static final int SLOWEST_DEBS = 5;
+
+  private final long start = System.nanoTime();
+  private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+  private final Map<String, Deb> debs = new LinkedHashMap<String, Deb>();
+
+  /**
+   * Returns the current time for a later {@link #record(String, long, long, long, int)}.
+   *
+   * @return the current value of {@link System#nanoTime()}.
+   */
+  public static long now() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Adds a run of a phase that started at startNanos and ends now.
+   *
+   * @param phase the name of the phase
+   * @param startNanos the start as returned by {@link #now()}
+   * @param bytesRead bytes read in this run
+   * @param bytesWritten bytes written in this run
+   * @param files number of files processed in this run
+   */
+  public void record(String phase, long startNanos, long bytesRead, long bytesWritten, int files) {
+    addNanos(phase, System.nanoTime() - startNanos, bytesRead, bytesWritten, files);
+  }
+
+  /**
+   * Adds time, bytes and files to a phase.
+   *
+   * @param phase the name of the phase
+   * @param nanos the time spent
+   * @param bytesRead bytes read
+   * @param bytesWritten bytes written
+   * @param files number of files processed
+   */
+  public synchronized void addNanos(String phase, long nanos, long bytesRead, long bytesWritten,
+      int files) {
+    Phase p = phases.get(phase);
+    if (p == null) {
+      p = new Phase();
+      phases.put(phase, p);
+    }
+    p.nanos += nanos;
+    p.bytesRead += bytesRead;
+    p.bytesWritten += bytesWritten;
+    p.files += files;
+  }
+
+  /**
+   * Adds a run of a phase for a single deb file that started at startNanos and ends now, to the
+   * phase and to the deb.
+   *
+   * @param phase {@link #HASHING}, {@link #DECODING} or {@link #CONTENTS_SCAN}
+   * @param deb the deb file
+   * @param startNanos the start as returned by {@link #now()}
+   * @param bytesRead bytes read
+   */
+  public synchronized void recordDeb(String phase, File deb, long startNanos, long bytesRead) {
+    long nanos = System.nanoTime() - startNanos;
+    addNanos(phase, nanos, bytesRead, 0, 1);
+    getDeb(deb).nanos.put(phase, nanos);
+  }
+
+  /**
+   * Marks the entry of a deb file as taken from the cache.
+   *
+   * @param deb the deb file
+   */
+  public synchronized void recordCached(File deb) {
+    getDeb(deb).cached = true;
+  }
+
+  private Deb getDeb(File file) {
+    Deb deb = debs.get(file.getName());
+    if (deb == null) {
+      deb = new Deb(file.getName(), file.length());
+      debs.put(file.getName(), deb);
+    }
+    return deb;
+  }
+
+  /**
+   * Logs a table of the phases and the slowest deb files.
+   *
+   * @param log the logger to use
+   */
+  public synchronized void log(Log log) {
+    log.info(String.format(Locale.ENGLISH, "%-16s %10s %7s %10s %10s", "phase", "ms", "files",
+        "read MB", "written MB"));
+    for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+      Phase phase = entry.getValue();
+      log.info(String.format(Locale.ENGLISH, "%-16s %10d %7d %10.1f %10.1f", entry.getKey(),
+          phase.nanos / 1000000, phase.files, phase.bytesRead / MB, phase.bytesWritten / MB));
+    }
+    log.info(String.format(Locale.ENGLISH, "%-16s %10d", "total", getTotalNanos() / 1000000));
+    List<Deb> slowest = getSlowestDebs();
+    if (!slowest.isEmpty()) {
+      log.info("slowest deb files:");
+      for (Deb deb : slowest) {
+        log.info(String.format(Locale.ENGLISH, "%10d ms %10.1f MB  %s", deb.getNanos() / 1000000,
+            deb.size / MB, deb.name));
+      }
+    }
+  }
+
+  private List<Deb> getSlowestDebs() {
+    List<Deb> slowest = new ArrayList<Deb>();
+    for (Deb deb : debs.values()) {
+      if (!deb.cached) {
+        slowest.add(deb);
+      }
+    }
+    Collections.sort(slowest, new Comparator<Deb>() {
+      public int compare(Deb a, Deb b) {
+        return Long.valueOf(b.getNanos()).compareTo(a.getNanos());
+      }
+    });
+    return slowest.subList(0, Math.min(SLOWEST_DEBS, slowest.size()));
+  }
+
+  private long getTotalNanos() {
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Writes all phases and all deb files as JSON.
+   *
+   * @param file the report file, its directory is created if needed
+   * @throws IOException
+   */
+  public synchronized void writeJson(File file) throws IOException {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n  \"totalMillis\": ").append(getTotalNanos() / 1000000);
+    json.append(",\n  \"phases\": {");
+    String separator = "\n";
+    for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+      Phase phase = entry.getValue();
+      json.append(separator).append("    ").append(quote(entry.getKey()))
+          .append(": {\"millis\": ").append(phase.nanos / 1000000)
+          .append(", \"files\": ").append(phase.files)
+          .append(", \"bytesRead\": ").append(phase.bytesRead)
+          .append(", \"bytesWritten\": ").append(phase.bytesWritten).append('}');
+      separator = ",\n";
+    }
+    json.append("\n  },\n  \"debs\": [");
+    separator = "\n";
+    for (Deb deb : debs.values()) {
+      json.append(separator).append("    {\"name\": ").append(quote(deb.name))
+          .append(", \"size\": ").append(deb.size).append(", \"cached\": ").append(deb.cached)
+          .append(", \"micros\": {");
+      String phaseSeparator = "";
+      for (Map.Entry<String, Long> nanos : deb.nanos.entrySet()) {
+        json.append(phaseSeparator).append(quote(nanos.getKey())).append(": ")
+            .append(nanos.getValue() / 1000);
+        phaseSeparator = ", ";
+      }
+      json.append("}}");
+      separator = ",\n";
+    }
+    json.append("\n  ]\n}\n");
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new IOException("could not create directory " + dir);
+    }
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+    try {
+      writer.write(json.toString());
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static String quote(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  private static class Phase {
+    private long nanos;
+    private long bytesRead;
+    private long bytesWritten;
+    private int files;
+  }
+
+  private static class Deb {
+    private final String name;
+    private final long size;
+    private final Map<String, Long> nanos = new LinkedHashMap<String, Long>();
+    private boolean cached;
+
+    private Deb(String name, long size) {
+      this.name = name;
+      this.size = size;
+    }
+
+    private long getNanos() {
+      long sum = 0;
+      for (Long n : nanos.values()) {
+        sum += n;
+      }
+      return sum;
+    }
+  }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes all {@link Hashes} at once while the data passes through a single buffer.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class MultiDigest {
+  private final MessageDigest[] digests;
+  private long length;
+
+  public MultiDigest() throws MojoExecutionException {
+    Hashes[] hashes = Hashes.values();
+    digests = new MessageDigest[hashes.length];
+    try {
+      for (int i = 0; i < hashes.length; i++) {
+        digests[i] = MessageDigest.getInstance(hashes[i].toString());
+      }
+    } catch (NoSuchAlgorithmException e) {
+      throw new MojoExecutionException("could not create digest", e);
+    }
+  }
+
+  /**
+   * Feed a block of data to all digests.
+   *
+   * @param buffer the data
+   * @param offset start of the data in buffer
+   * @param len number of bytes to use
+   */
+  public void update(byte[] buffer, int offset, int len) {
+    for (MessageDigest digest : digests) {
+      digest.update(buffer, offset, len);
+    }
+    length += len;
+  }
+
+  /**
+   * Returns the number of bytes digested so far.
+   *
+   * @return long
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Completes the digests. The instance must not be used afterwards.
+   *
+   * @return {@link DefaultHashes} with the hex encoded digests.
+   * @throws MojoExecutionException
+   */
+  public DefaultHashes getHashes() throws MojoExecutionException {
+    DefaultHashes h = new DefaultHashes();
+    Hashes[] hashes = Hashes.values();
+    for (int i = 0; i < hashes.length; i++) {
+      String hex = new String(Hex.encodeHex(digests[i].digest()));
+      switch (hashes[i]) {
+        case MD5:
+          h.setMd5(hex);
+          break;
+        case SHA1:
+          h.setSha1(hex);
+          break;
+        case SHA256:
+          h.setSha256(hex);
+          break;
+        case SHA512:
+          h.setSha512(hex);
+          break;
+        default:
+          throw new MojoExecutionException("unknown hash type: " + hashes[i].toString());
+      }
+    }
+    return h;
+  }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a standard single member gzip stream, deflating blocks in parallel like pigz. Every
+ * block is primed with the last 32 KiB of its predecessor and ends on a byte boundary by a sync
+ * flush, so the blocks can simply be concatenated.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class ParallelGzipOutputStream extends BlockCompressorOutputStream {
+  public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+  private static final byte[] HEADER = {(byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0,
+      0, 0, (byte) 0xff};
+
+  private final int level;
+  private final CRC32 crc = new CRC32();
+  private long length;
+  private byte[] previous;
+  private int previousLength;
+
+  public ParallelGzipOutputStream(OutputStream out, int level, ExecutorService executor,
+      int threads) {
+    super(out, executor, threads, DEFAULT_BLOCK_SIZE);
+    this.level = level;
+  }
+
+  @Override
+  protected void writeHeader(OutputStream out) throws IOException {
+    out.write(HEADER);
+  }
+
+  @Override
+  protected void writeTrailer(OutputStream out) throws IOException {
+    writeInt(out, (int) crc.getValue());
+    writeInt(out, (int) length);
+  }
+
+  private static void writeInt(OutputStream out, int value) throws IOException {
+    out.write(value & 0xff);
+    out.write((value >> 8) & 0xff);
+    out.write((value >> 16) & 0xff);
+    out.write((value >> 24) & 0xff);
+  }
+
+  @Override
+  protected Callable<byte[]> createTask(final byte[] block, final int blockLength,
+      final boolean last) {
+    crc.update(block, 0, blockLength);
+    length += blockLength;
+    final byte[] dictionary = previous;
+    final int dictionaryLength = Math.min(previousLength, DICTIONARY_SIZE);
+    final int dictionaryOffset = previousLength - dictionaryLength;
+    previous = block;
+    previousLength = blockLength;
+    return new Callable<byte[]>() {
+      public byte[] call() {
+        Deflater deflater = new Deflater(level, true);
+        try {
+          if (dictionary != null && dictionaryLength > 0) {
+            deflater.setDictionary(dictionary, dictionaryOffset, dictionaryLength);
+          }
+          deflater.setInput(block, 0, blockLength);
+          ByteArrayOutputStream result = new ByteArrayOutputStream(blockLength / 2 + 64);
+          byte[] buffer = new byte[64 * 1024];
+          if (last) {
+            deflater.finish();
+            while (!deflater.finished()) {
+              int n = deflater.deflate(buffer);
+              result.write(buffer, 0, n);
+            }
+          } else {
+            int n;
+            do {
+              n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+              result.write(buffer, 0, n);
+            } while (n == buffer.length);
+          }
+          return result.toByteArray();
+        } finally {
+          deflater.end();
+        }
+      }
+    };
+  }
+
+}
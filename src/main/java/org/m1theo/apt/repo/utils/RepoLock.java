@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock of a repository directory, held while deb files are staged into it or its
+ * indices are written. Threads of the same JVM (parallel reactor builds) are serialised by a lock
+ * per directory, other processes by a file lock on {@link #LOCK_FILE_NAME} in the directory. A
+ * thread may acquire the lock of a directory again while it holds it.
+ * <p>
+ * The locks per directory are only shared by the classes of one class realm. If this class is
+ * loaded twice in a JVM, e.g. by the extension realm and the realm of a plugin execution, the
+ * file lock of the other copy is held by the same JVM: locking it fails with an
+ * {@link OverlappingFileLockException} instead of waiting, so it is retried every
+ * {@link #RETRY_INTERVAL} milliseconds until the other copy released it.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class RepoLock {
+  public static final String LOCK_FILE_NAME = ".apt-repo-lock";
+  static final long RETRY_INTERVAL = 100;
+  private static final Map<String, RepoLock> LOCKS = new HashMap<String, RepoLock>();
+
+  private final File lockFile;
+  private final ReentrantLock lock = new ReentrantLock();
+  private FileChannel channel;
+  private FileLock fileLock;
+
+  private RepoLock(File lockFile) {
+    this.lockFile = lockFile;
+  }
+
+  /**
+   * Acquires the lock of repoDir, waiting until no other thread or process holds it. Every call
+   * must be followed by a {@link #release()} in the same thread.
+   *
+   * @param repoDir the repository directory, created if it does not exist
+   * @return the {@link RepoLock}.
+   * @throws MojoExecutionException if the lock file cannot be locked
+   */
+  public static RepoLock acquire(File repoDir) throws MojoExecutionException {
+    RepoLock repoLock;
+    try {
+      if (!repoDir.exists() && !repoDir.mkdirs() && !repoDir.isDirectory()) {
+        throw new MojoExecutionException("could not create directory " + repoDir);
+      }
+      String path = repoDir.getCanonicalPath();
+      synchronized (LOCKS) {
+        repoLock = LOCKS.get(path);
+        if (repoLock == null) {
+          repoLock = new RepoLock(new File(path, LOCK_FILE_NAME));
+          LOCKS.put(path, repoLock);
+        }
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("could not lock " + repoDir, e);
+    }
+    repoLock.lock();
+    return repoLock;
+  }
+
+  private void lock() throws MojoExecutionException {
+    lock.lock();
+    if (lock.getHoldCount() > 1) {
+      return;
+    }
+    try {
+      channel = new RandomAccessFile(lockFile, "rw").getChannel();
+      while (fileLock == null) {
+        try {
+          fileLock = channel.lock();
+        } catch (OverlappingFileLockException e) {
+          // held by a copy of this class in another class realm
+          Thread.sleep(RETRY_INTERVAL);
+        }
+      }
+    } catch (IOException e) {
+      closeChannel();
+      lock.unlock();
+      throw new MojoExecutionException("could not lock " + lockFile, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      closeChannel();
+      lock.unlock();
+      throw new MojoExecutionException("interrupted while waiting for " + lockFile, e);
+    }
+  }
+
+  /**
+   * Releases the lock.
+   */
+  public void release() {
+    if (lock.getHoldCount() == 1) {
+      try {
+        fileLock.release();
+      } catch (IOException e) {
+        // released when the channel is closed
+      }
+      fileLock = null;
+      closeChannel();
+    }
+    lock.unlock();
+  }
+
+  private void closeChannel() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // nothing to do
+      }
+      channel = null;
+    }
+  }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only store of byte arrays in a memory-mapped temporary file, to keep large amounts of
+ * data out of the Java heap. The file is deleted right after it was opened where the platform
+ * allows it, otherwise on exit. {@link #close()} releases the file descriptor and the references
+ * to the mapped segments, which are unmapped by the garbage collector. Thread-safe.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class SpillStore implements Closeable {
+  // a handle holds the segment (11 bits), the position (26 bits) and the length (27 bits)
+  private static final int POSITION_BITS = 26;
+  private static final int LENGTH_BITS = 27;
+  private static final int SEGMENT_SIZE = 1 << POSITION_BITS;
+  private static final int MAX_SEGMENTS = 1 << (64 - POSITION_BITS - LENGTH_BITS);
+
+  private final FileChannel channel;
+  private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+  private MappedByteBuffer current;
+  private long size;
+  private boolean closed;
+
+  /**
+   * Creates the store in the default temporary directory.
+   *
+   * @throws IOException if the temporary file cannot be created
+   */
+  public SpillStore() throws IOException {
+    File tmpFile = File.createTempFile("apt-repo-spill", ".tmp");
+    channel = new RandomAccessFile(tmpFile, "rw").getChannel();
+    if (!tmpFile.delete()) {
+      tmpFile.deleteOnExit();
+    }
+  }
+
+  /**
+   * Appends data to the store.
+   *
+   * @param data the bytes to store, at most 64 MiB
+   * @return the handle for {@link #get(long)}.
+   * @throws IOException if the file cannot be extended
+   */
+  public synchronized long put(byte[] data) throws IOException {
+    if (closed) {
+      throw new IOException("spill store is closed");
+    }
+    if (data.length > SEGMENT_SIZE) {
+      throw new IOException("cannot spill " + data.length + " bytes");
+    }
+    if (current == null || current.remaining() < data.length) {
+      if (segments.size() == MAX_SEGMENTS) {
+        throw new IOException("spill store is full");
+      }
+      current = channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * SEGMENT_SIZE,
+          SEGMENT_SIZE);
+      segments.add(current);
+    }
+    long handle = (long) (segments.size() - 1) << (POSITION_BITS + LENGTH_BITS)
+        | (long) current.position() << LENGTH_BITS | data.length;
+    current.put(data);
+    size += data.length;
+    return handle;
+  }
+
+  /**
+   * Returns a copy of the bytes stored under handle.
+   *
+   * @param handle a handle returned by {@link #put(byte[])}
+   * @return the bytes.
+   * @throws IllegalStateException if the store is closed
+   */
+  public byte[] get(long handle) {
+    int segment = (int) (handle >>> (POSITION_BITS + LENGTH_BITS));
+    int position = (int) (handle >>> LENGTH_BITS) & (SEGMENT_SIZE - 1);
+    byte[] data = new byte[(int) handle & ((1 << LENGTH_BITS) - 1)];
+    ByteBuffer buffer;
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("spill store is closed");
+      }
+      buffer = segments.get(segment).duplicate();
+    }
+    buffer.position(position);
+    buffer.get(data);
+    return data;
+  }
+
+  /**
+   * @return the number of bytes mapped.
+   */
+  public synchronized long getMappedSize() {
+    return (long) segments.size() * SEGMENT_SIZE;
+  }
+
+  /**
+   * @return the number of bytes stored, including the ones no longer used by anybody.
+   */
+  public synchronized long getSize() {
+    return size;
+  }
+
+  /**
+   * Closes the file. The data stored cannot be read anymore.
+   *
+   * @throws IOException
+   */
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    segments.clear();
+    current = null;
+    channel.close();
+  }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Places files into the repository directory according to a {@link StagingMode}. Files already
+ * present with the same content are left untouched, and if the requested mode fails the file is
+ * copied instead. Copies keep the modification time of their source, so a file already staged is
+ * recognised by its size and modification time without reading it; only files that differ in
+ * their modification time are compared by content. Replacing a file with a different content of
+ * the same name, e.g. a rebuilt package with an unchanged version, is reported as warning.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class Stager {
+  private final StagingMode mode;
+  private final Log log;
+
+  public Stager(StagingMode mode, Log log) {
+    this.mode = mode;
+    this.log = log;
+  }
+
+  /**
+   * Places source into dir.
+   *
+   * @param source the file to stage
+   * @param dir the target directory
+   * @return the staged file.
+   * @throws MojoExecutionException
+   */
+  public File stage(File source, File dir) throws MojoExecutionException {
+    return stageAs(source, new File(dir, source.getName()));
+  }
+
+  /**
+   * Places source at target, replacing a different file at target.
+   *
+   * @param source the file to stage
+   * @param target the path of the staged file
+   * @return the staged file.
+   * @throws MojoExecutionException
+   */
+  public File stageAs(File source, File target) throws MojoExecutionException {
+    try {
+      if (Files.exists(target.toPath())) {
+        if (isSameContent(source, target)) {
+          log.debug("already staged: " + target);
+          return target;
+        }
+        log.warn("replacing " + target + " with " + source + ", same name but different content");
+        // never write through an existing (hard) link
+        Files.delete(target.toPath());
+      }
+      if (mode != StagingMode.COPY) {
+        try {
+          link(source, target);
+          return target;
+        } catch (IOException e) {
+          log.info(mode + " staging failed for " + source.getName() + ", copying instead: " + e);
+        } catch (UnsupportedOperationException e) {
+          log.info(mode + " staging not supported for " + source.getName()
+              + ", copying instead: " + e);
+        }
+        Files.deleteIfExists(target.toPath());
+      }
+      copy(source, target);
+      return target;
+    } catch (IOException e) {
+      throw new MojoExecutionException("could not stage " + source + " to " + target, e);
+    }
+  }
+
+  private boolean isSameContent(File source, File target) throws IOException,
+      MojoExecutionException {
+    if (Files.isSameFile(source.toPath(), target.toPath())) {
+      return true;
+    }
+    long lastModified = source.lastModified();
+    if (source.length() == target.length() && lastModified != 0
+        && lastModified == target.lastModified()) {
+      return true;
+    }
+    return new DuplicateFilter(null, log).isSameContent(source, target);
+  }
+
+  private void link(File source, File target) throws IOException {
+    switch (mode) {
+      case HARDLINK:
+        Files.createLink(target.toPath(), source.toPath());
+        break;
+      case SYMLINK:
+        Files.createSymbolicLink(target.toPath(), source.getAbsoluteFile().toPath());
+        break;
+      case REFLINK:
+        reflink(source, target);
+        break;
+      default:
+        throw new UnsupportedOperationException(mode.toString());
+    }
+  }
+
+  private void reflink(File source, File target) throws IOException {
+    Process process =
+        new ProcessBuilder("cp", "--reflink=always", source.getAbsolutePath(),
+            target.getAbsolutePath()).redirectErrorStream(true).start();
+    try {
+      process.getOutputStream().close();
+      String output = IOUtil.toString(process.getInputStream()).trim();
+      int exitCode = process.waitFor();
+      if (exitCode != 0) {
+        throw new IOException("cp --reflink=always exited with " + exitCode + ": " + output);
+      }
+      target.setLastModified(source.lastModified());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for cp", e);
+    }
+  }
+
+  private void copy(File source, File target) throws IOException {
+    FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+    try {
+      FileChannel out =
+          FileChannel.open(target.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING);
+      try {
+        long size = in.size();
+        long position = 0;
+        while (position < size) {
+          position += in.transferTo(position, size - position, out);
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+    target.setLastModified(source.lastModified());
+  }
+
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+/**
+ * Ways to place the deb files into the repository directory.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public enum StagingMode {
+  /** Copy the bytes using {@code FileChannel.transferTo}. */
+  COPY,
+  /** Create a hard link to the artifact. */
+  HARDLINK,
+  /** Create a symbolic link to the artifact. */
+  SYMLINK,
+  /** Create a copy-on-write clone using {@code cp --reflink=always}. */
+  REFLINK;
+}
@@ -14,7 +14,6 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 
 import java.io.*;
-import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
@@ -28,6 +27,11 @@ import java.util.*;
  */
 public class Utils {
 
+  /**
+   * Size of the blocks used to read files for digest computation.
+   */
+  static final int BUFFER_SIZE = 64 * 1024;
+
   /**
    * Compute the given message digest for a file.
    * 
@@ -38,18 +42,18 @@ public class Utils {
    */
   public static String getDigest(String hashType, File file) throws MojoExecutionException {
     try {
-      FileInputStream fis = new FileInputStream(file);
-      BufferedInputStream bis = new BufferedInputStream(fis);
       MessageDigest digest = MessageDigest.getInstance(hashType);
-      DigestInputStream dis = new DigestInputStream(bis, digest);
-      @SuppressWarnings("unused")
-      int ch;
-      while ((ch = dis.read()) != -1);
-      String hex = new String(Hex.encodeHex(digest.digest()));
-      fis.close();
-      bis.close();
-      dis.close();
-      return hex;
+      FileInputStream fis = new FileInputStream(file);
+      try {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = fis.read(buffer)) != -1) {
+          digest.update(buffer, 0, n);
+        }
+      } finally {
+        fis.close();
+      }
+      return new String(Hex.encodeHex(digest.digest()));
     } catch (NoSuchAlgorithmException e) {
       throw new MojoExecutionException("could not create digest", e);
     } catch (FileNotFoundException e) {
@@ -60,72 +64,101 @@ public class Utils {
   }
 
   /**
-   * Compute md5, sha1, sha256 message digest for a file.
+   * Compute md5, sha1, sha256, sha512 message digest for a file. The file is read only once and
+   * every block is fed to all digests.
    * 
    * @param file File to compute the digest for (as {@code File}).
    * @return {@link DefaultHashes} with the computed digests.
    * @throws MojoExecutionException
    */
   public static DefaultHashes getDefaultDigests(File file) throws MojoExecutionException {
-    DefaultHashes h = new DefaultHashes();
-      for (Hashes hash : Hashes.values()) {
-        String hex = getDigest(hash.toString(), file);
-        switch (Hashes.values()[hash.ordinal()]) {
-          case MD5:
-            h.setMd5(hex);
-            break;
-          case SHA1:
-            h.setSha1(hex);
-            break;
-          case SHA256:
-            h.setSha256(hex);
-            break;
-          case SHA512:
-            h.setSha512(hex);
-            break;
-          default:
-            throw new MojoExecutionException("unknown hash type: " + hash.toString());
+    try {
+      MultiDigest digest = new MultiDigest();
+      FileInputStream fis = new FileInputStream(file);
+      try {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = fis.read(buffer)) != -1) {
+          digest.update(buffer, 0, n);
         }
+      } finally {
+        fis.close();
       }
-      return h;
+      return digest.getHashes();
+    } catch (FileNotFoundException e) {
+      throw new MojoExecutionException("could not create digest", e);
+    } catch (IOException e) {
+      throw new MojoExecutionException("could not create digest", e);
+    }
   }
 
   /**
-   * Collects all artifacts of the given type.
+   * Collects all artifacts of the given type. Every project is visited once, also if it is a
+   * module of several of the parents climbed with aggregate.
    * 
    * @param project The maven project which should be used.
    * @param type The file type which should be collected.
+   * @param aggregate true to collect the artifacts of the modules of the parents, too
    * @return A collection of all artifacts with the given type.
    */
-  @SuppressWarnings("unchecked")
   public static Collection<Artifact> getAllArtifacts4Type(MavenProject project, String type,
       Boolean aggregate) {
     final Set<Artifact> artifacts = new LinkedHashSet<Artifact>();
-    List<MavenProject> modules = new ArrayList<MavenProject>();
-    modules.add(project);
-    List<MavenProject> collectedProjects = project.getCollectedProjects();
-    if (collectedProjects != null) {
-      modules.addAll(collectedProjects);
-    }
-    for (MavenProject module : modules) {
-      addDebArtifact(module.getArtifact(), artifacts, type);
-      for (Object artifact : module.getArtifacts()) {
-        if (artifact instanceof Artifact) {
-          addDebArtifact((Artifact) artifact, artifacts, type);
+    Set<MavenProject> visited = new HashSet<MavenProject>();
+    for (MavenProject current = project; current != null; current = current.getParent()) {
+      addModuleArtifacts(current, artifacts, type, visited);
+      List<MavenProject> collectedProjects = current.getCollectedProjects();
+      if (collectedProjects != null) {
+        for (MavenProject module : collectedProjects) {
+          addModuleArtifacts(module, artifacts, type, visited);
         }
       }
-      for (Object artifact : module.getAttachedArtifacts()) {
-        if (artifact instanceof Artifact) {
-          addDebArtifact((Artifact) artifact, artifacts, type);
-        }
+      if (!aggregate || !current.hasParent()) {
+        break;
       }
     }
-    if (project.hasParent() && aggregate) {
-      artifacts.addAll(getAllArtifacts4Type(project.getParent(), type, aggregate));
+    return artifacts;
+  }
+
+  /**
+   * Collects the artifacts of the given type of all projects of the reactor in a single pass.
+   *
+   * @param reactorProjects the projects of the reactor
+   * @param type The file type which should be collected.
+   * @return A collection of all artifacts with the given type.
+   */
+  public static Collection<Artifact> getReactorArtifacts4Type(List<MavenProject> reactorProjects,
+      String type) {
+    final Set<Artifact> artifacts = new LinkedHashSet<Artifact>();
+    Set<MavenProject> visited = new HashSet<MavenProject>();
+    for (MavenProject module : reactorProjects) {
+      addModuleArtifacts(module, artifacts, type, visited);
     }
     return artifacts;
   }
 
+  /**
+   * Adds the artifact, the dependencies and the attached artifacts of module, unless it was
+   * visited before.
+   */
+  private static void addModuleArtifacts(MavenProject module, Set<Artifact> artifacts,
+      String type, Set<MavenProject> visited) {
+    if (!visited.add(module)) {
+      return;
+    }
+    addDebArtifact(module.getArtifact(), artifacts, type);
+    for (Object artifact : module.getArtifacts()) {
+      if (artifact instanceof Artifact) {
+        addDebArtifact((Artifact) artifact, artifacts, type);
+      }
+    }
+    for (Object artifact : module.getAttachedArtifacts()) {
+      if (artifact instanceof Artifact) {
+        addDebArtifact((Artifact) artifact, artifacts, type);
+      }
+    }
+  }
+
   private static void addDebArtifact(Artifact artifact, Set<Artifact> artifacts, String type) {
     if (artifact.getType().equals(type)) {
       artifacts.add(artifact);
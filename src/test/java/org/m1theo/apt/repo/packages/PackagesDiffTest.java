@@ -0,0 +1,272 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.packages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.m1theo.apt.repo.release.ReleaseInfo;
+import org.m1theo.apt.repo.utils.Utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests for {@link PackagesDiff}: the generated pdiffs are applied to the previous Packages file
+ * with a small ed implementation and the result is checked against the hashes of the Index.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class PackagesDiffTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private File dir;
+  private File packages;
+
+  @Before
+  public void createDir() throws IOException {
+    dir = Files.createTempDirectory("pdiff").toFile();
+    packages = new File(dir, PackagesWriter.PACKAGES);
+  }
+
+  @After
+  public void deleteDir() throws IOException {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  private static String stanza(String name, String version) {
+    return "Package: " + name + "\nVersion: " + version + "\nFilename: " + name + "_" + version
+        + "_all.deb\nSize: 1234\nSHA256: " + name + version + "\n\n";
+  }
+
+  private static String packages(String... stanzas) {
+    StringBuilder b = new StringBuilder();
+    for (String stanza : stanzas) {
+      b.append(stanza);
+    }
+    return b.toString();
+  }
+
+  /**
+   * Writes content as the new Packages file, with a patch from the current one.
+   */
+  private void publish(String content) throws IOException, MojoExecutionException {
+    PackagesDiff diff = new PackagesDiff(dir, 10, new SystemStreamLog());
+    diff.prepare();
+    // the Packages file is replaced, not overwritten, like by PackagesWriter
+    File tmp = new File(dir, "Packages.new");
+    FileUtils.fileWrite(tmp, "UTF-8", content);
+    Files.move(tmp.toPath(), packages.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    diff.update(new ReleaseInfo(PackagesWriter.PACKAGES, packages.length(),
+        Utils.getDefaultDigests(packages)));
+  }
+
+  /**
+   * Publishes from and then to, and checks that the patch turns from into to.
+   */
+  private void assertPatch(String from, String to) throws Exception {
+    publish(from);
+    publish(to);
+    Map<String, String[]> index = readIndex();
+    List<String> names = new ArrayList<String>(index.keySet());
+    names.remove("Current");
+    assertEquals(1, names.size());
+    String name = names.get(0);
+    assertEquals(sha256(from), index.get(name)[0]);
+    assertEquals(Integer.toString(from.getBytes(UTF8).length), index.get(name)[1]);
+    String result = ed(from, readPatch(name));
+    assertEquals(to, result);
+    assertEquals(sha256(to), index.get("Current")[0]);
+    assertEquals(sha256(result), index.get("Current")[0]);
+  }
+
+  @Test
+  public void addsStanzas() throws Exception {
+    assertPatch(packages(stanza("b", "1"), stanza("d", "1")),
+        packages(stanza("a", "1"), stanza("b", "1"), stanza("c", "1"), stanza("d", "1"),
+            stanza("e", "1")));
+  }
+
+  @Test
+  public void removesStanzas() throws Exception {
+    assertPatch(packages(stanza("a", "1"), stanza("b", "1"), stanza("c", "1"), stanza("d", "1"),
+        stanza("e", "1")), packages(stanza("b", "1"), stanza("d", "1")));
+  }
+
+  @Test
+  public void replacesStanzas() throws Exception {
+    assertPatch(packages(stanza("a", "1"), stanza("b", "1"), stanza("c", "1")),
+        packages(stanza("a", "2"), stanza("b", "1"), stanza("c", "2")));
+  }
+
+  @Test
+  public void replacesFirstAndLastStanza() throws Exception {
+    assertPatch(packages(stanza("b", "1"), stanza("c", "1"), stanza("d", "1")),
+        packages(stanza("a", "1"), stanza("c", "1"), stanza("e", "1")));
+  }
+
+  @Test
+  public void mixesChanges() throws Exception {
+    assertPatch(packages(stanza("a", "1"), stanza("c", "1"), stanza("d", "1"), stanza("f", "1")),
+        packages(stanza("b", "1"), stanza("c", "2"), stanza("e", "1"), stanza("f", "1"),
+            stanza("g", "1")));
+  }
+
+  @Test
+  public void startsFromAnEmptyFile() throws Exception {
+    assertPatch("", packages(stanza("a", "1"), stanza("b", "1")));
+  }
+
+  @Test
+  public void endsWithAnEmptyFile() throws Exception {
+    assertPatch(packages(stanza("a", "1"), stanza("b", "1")), "");
+  }
+
+  @Test
+  public void chainsPatchesAlongTheHistory() throws Exception {
+    String[] versions =
+        {packages(stanza("a", "1")), packages(stanza("a", "1"), stanza("b", "1")),
+            packages(stanza("b", "2")), "", packages(stanza("c", "1"))};
+    for (String version : versions) {
+      publish(version);
+    }
+    Map<String, String[]> index = readIndex();
+    List<String> names = new ArrayList<String>(index.keySet());
+    names.remove("Current");
+    assertEquals(versions.length - 1, names.size());
+    String content = versions[0];
+    for (int i = 0; i < names.size(); i++) {
+      assertEquals("history " + i, sha256(content), index.get(names.get(i))[0]);
+      content = ed(content, readPatch(names.get(i)));
+      assertEquals(versions[i + 1], content);
+    }
+    assertEquals(sha256(content), index.get("Current")[0]);
+  }
+
+  @Test
+  public void keepsNoPatchForAnUnchangedFile() throws Exception {
+    publish(packages(stanza("a", "1")));
+    publish(packages(stanza("a", "1")));
+    Map<String, String[]> index = readIndex();
+    assertEquals(Arrays.asList("Current"), new ArrayList<String>(index.keySet()));
+  }
+
+  /**
+   * Returns the SHA256-Current (as "Current") and SHA256-History entries of the Index, in order,
+   * as {hash, size}.
+   */
+  private Map<String, String[]> readIndex() throws IOException {
+    Map<String, String[]> result = new LinkedHashMap<String, String[]>();
+    String section = null;
+    File index = new File(new File(dir, PackagesDiff.DIFF_DIR), PackagesDiff.INDEX);
+    for (String line : FileUtils.fileRead(index, "UTF-8").split("\n")) {
+      if (line.startsWith("SHA256-Current:")) {
+        result.put("Current", line.substring(15).trim().split("\\s+"));
+      } else if (line.startsWith(" ")) {
+        String[] parts = line.trim().split("\\s+");
+        if ("SHA256-History:".equals(section)) {
+          result.put(parts[2], new String[] {parts[0], parts[1]});
+        }
+      } else {
+        section = line;
+      }
+    }
+    return result;
+  }
+
+  private String readPatch(String name) throws IOException {
+    InputStream in =
+        new GZIPInputStream(new FileInputStream(new File(new File(dir, PackagesDiff.DIFF_DIR),
+            name + ".gz")));
+    try {
+      return IOUtil.toString(in, "UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Applies the a, c and d commands of an ed script, as used by apt for pdiffs. Like apt, the
+   * commands have to be ordered from the end of the file to its start.
+   */
+  static String ed(String content, String script) {
+    List<String> lines = new ArrayList<String>();
+    if (!content.isEmpty()) {
+      assertTrue(content.endsWith("\n"));
+      lines.addAll(Arrays.asList(content.substring(0, content.length() - 1).split("\n", -1)));
+    }
+    String[] commands = script.isEmpty() ? new String[0] : script.split("\n", -1);
+    int i = 0;
+    int limit = lines.size();
+    while (i < commands.length && !commands[i].isEmpty()) {
+      String command = commands[i++];
+      char op = command.charAt(command.length() - 1);
+      String[] range = command.substring(0, command.length() - 1).split(",");
+      int start = Integer.parseInt(range[0]);
+      int end = range.length > 1 ? Integer.parseInt(range[1]) : start;
+      assertTrue(command + " is not below the previous command", end <= limit);
+      limit = op == 'a' ? start : start - 1;
+      List<String> text = new ArrayList<String>();
+      if (op == 'a' || op == 'c') {
+        while (!commands[i].equals(".")) {
+          text.add(commands[i++]);
+        }
+        i++;
+      }
+      switch (op) {
+        case 'a':
+          lines.addAll(start, text);
+          break;
+        case 'c':
+          lines.subList(start - 1, end).clear();
+          lines.addAll(start - 1, text);
+          break;
+        case 'd':
+          lines.subList(start - 1, end).clear();
+          break;
+        default:
+          throw new IllegalArgumentException("unsupported command " + command);
+      }
+    }
+    StringBuilder result = new StringBuilder();
+    for (String line : lines) {
+      result.append(line).append('\n');
+    }
+    return result.toString();
+  }
+
+  private static String sha256(String content) throws NoSuchAlgorithmException {
+    return new String(Hex.encodeHex(MessageDigest.getInstance("SHA-256").digest(
+        content.getBytes(UTF8))));
+  }
+
+}
@@ -0,0 +1,305 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Tests for {@link RepoServer}: range parsing and path decoding, and requests over a socket to a
+ * server for a small repository.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class RepoServerTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String PACKAGES = "Package: foo\nVersion: 1.0\nArchitecture: all\n\n";
+
+  private File dir;
+  private RepoServer server;
+  private InetSocketAddress address;
+  private Thread thread;
+  private String etag;
+
+  @Before
+  public void startServer() throws Exception {
+    dir = Files.createTempDirectory("serve").toFile();
+    File packages = new File(dir, "Packages");
+    FileUtils.fileWrite(packages, "UTF-8", PACKAGES);
+    String sha256 = new String(Hex.encodeHex(MessageDigest.getInstance("SHA-256").digest(
+        PACKAGES.getBytes(UTF8))));
+    FileUtils.fileWrite(new File(dir, "Release"), "UTF-8", "Origin: test\nSHA256:\n " + sha256
+        + " " + packages.length() + " Packages\n");
+    FileUtils.fileWrite(new File(dir, ".apt-repo-cache"), "UTF-8", "hidden");
+    FileUtils.fileWrite(new File(dir.getParentFile(), dir.getName() + "-secret"), "UTF-8",
+        "secret");
+    etag = "\"" + sha256 + "\"";
+    server = new RepoServer(dir, new SystemStreamLog());
+    address = server.bind(new InetSocketAddress("127.0.0.1", 0));
+    thread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          server.run();
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    });
+    thread.start();
+  }
+
+  @After
+  public void stopServer() throws Exception {
+    server.stop();
+    thread.join(5000);
+    new File(dir.getParentFile(), dir.getName() + "-secret").delete();
+    FileUtils.deleteDirectory(dir);
+  }
+
+  @Test
+  public void parsesSingleRanges() {
+    assertArrayEquals(new long[] {0, 9}, RepoServer.parseRange("bytes=0-9", 100));
+    assertArrayEquals(new long[] {90, 99}, RepoServer.parseRange("bytes=90-", 100));
+    assertArrayEquals(new long[] {90, 99}, RepoServer.parseRange("bytes=-10", 100));
+    assertArrayEquals(new long[] {0, 99}, RepoServer.parseRange("bytes=-200", 100));
+    assertArrayEquals(new long[] {5, 99}, RepoServer.parseRange("bytes=5-200", 100));
+  }
+
+  @Test
+  public void ignoresInvalidAndMultipleRanges() {
+    assertEquals(0, RepoServer.parseRange("bytes=0-1,5-6", 100).length);
+    assertEquals(0, RepoServer.parseRange("items=0-9", 100).length);
+    assertEquals(0, RepoServer.parseRange("bytes=9-5", 100).length);
+    assertEquals(0, RepoServer.parseRange("bytes=a-b", 100).length);
+    assertEquals(0, RepoServer.parseRange("bytes=10", 100).length);
+  }
+
+  @Test
+  public void rejectsUnsatisfiableRanges() {
+    assertNull(RepoServer.parseRange("bytes=100-", 100));
+    assertNull(RepoServer.parseRange("bytes=-0", 100));
+    assertNull(RepoServer.parseRange("bytes=-5", 0));
+  }
+
+  @Test
+  public void decodesPaths() {
+    assertEquals("/a b/c", RepoServer.getPath("/a%20b/c"));
+    assertEquals("/Packages", RepoServer.getPath("/Packages?x=1"));
+    assertNull(RepoServer.getPath("Packages"));
+    assertNull(RepoServer.getPath("/Packages%00"));
+    assertNull(RepoServer.getPath("/Packages%0a"));
+    assertNull(RepoServer.getPath("/Packages%zz"));
+    assertNull(RepoServer.getPath("/Packages%2"));
+  }
+
+  @Test
+  public void servesFilesWithTheirHashAsETag() throws IOException {
+    Response response = request("GET /Packages HTTP/1.1\r\nHost: test\r\n\r\n");
+    assertEquals(200, response.status);
+    assertEquals(PACKAGES, response.body);
+    assertEquals(etag, response.headers.get("etag"));
+    assertEquals("bytes", response.headers.get("accept-ranges"));
+    assertEquals("public, max-age=30, must-revalidate", response.headers.get("cache-control"));
+  }
+
+  @Test
+  public void answersHeadWithoutBody() throws IOException {
+    Response response = request("HEAD /Packages HTTP/1.1\r\nHost: test\r\n\r\n");
+    assertEquals(200, response.status);
+    assertEquals(Integer.toString(PACKAGES.length()), response.headers.get("content-length"));
+    assertEquals("", response.body);
+  }
+
+  @Test
+  public void servesRanges() throws IOException {
+    Response response = request("GET /Packages HTTP/1.1\r\nRange: bytes=0-6\r\n\r\n");
+    assertEquals(206, response.status);
+    assertEquals("Package", response.body);
+    assertEquals("bytes 0-6/" + PACKAGES.length(), response.headers.get("content-range"));
+  }
+
+  @Test
+  public void rejectsUnsatisfiableRange() throws IOException {
+    Response response = request("GET /Packages HTTP/1.1\r\nRange: bytes=1000-\r\n\r\n");
+    assertEquals(416, response.status);
+    assertEquals("bytes */" + PACKAGES.length(), response.headers.get("content-range"));
+  }
+
+  @Test
+  public void servesRangeOnlyIfRangeMatches() throws IOException {
+    Response response = request("GET /Packages HTTP/1.1\r\nRange: bytes=0-6\r\nIf-Range: " + etag
+        + "\r\n\r\n");
+    assertEquals(206, response.status);
+    assertEquals("Package", response.body);
+    response = request("GET /Packages HTTP/1.1\r\nRange: bytes=0-6\r\nIf-Range: \"other\"\r\n\r\n");
+    assertEquals(200, response.status);
+    assertEquals(PACKAGES, response.body);
+  }
+
+  @Test
+  public void answersNotModifiedForMatchingETag() throws IOException {
+    Response response = request("GET /Packages HTTP/1.1\r\nIf-None-Match: \"other\", " + etag
+        + "\r\n\r\n");
+    assertEquals(304, response.status);
+    assertEquals("", response.body);
+    response = request("GET /Packages HTTP/1.1\r\nIf-None-Match: \"other\"\r\n\r\n");
+    assertEquals(200, response.status);
+  }
+
+  @Test
+  public void usesWeakETagForUnknownFiles() throws IOException {
+    Response response = request("GET /Release HTTP/1.1\r\n\r\n");
+    assertEquals(200, response.status);
+    String weak = response.headers.get("etag");
+    assertTrue(weak, weak.startsWith("W/\""));
+    // a weak ETag never satisfies If-Range
+    response = request("GET /Release HTTP/1.1\r\nRange: bytes=0-5\r\nIf-Range: " + weak
+        + "\r\n\r\n");
+    assertEquals(200, response.status);
+  }
+
+  @Test
+  public void rejectsDotSegmentsAndHiddenFiles() throws IOException {
+    String secret = dir.getName() + "-secret";
+    assertEquals(404, request("GET /../" + secret + " HTTP/1.1\r\n\r\n").status);
+    assertEquals(404, request("GET /%2e%2e/" + secret + " HTTP/1.1\r\n\r\n").status);
+    assertEquals(404, request("GET /x/../../" + secret + " HTTP/1.1\r\n\r\n").status);
+    assertEquals(404, request("GET /.apt-repo-cache HTTP/1.1\r\n\r\n").status);
+    assertEquals(404, request("GET /missing HTTP/1.1\r\n\r\n").status);
+  }
+
+  @Test
+  public void rejectsBadRequests() throws IOException {
+    assertEquals(400, request("GET /Packages%00 HTTP/1.1\r\n\r\n").status);
+    assertEquals(400, request("nonsense\r\n\r\n").status);
+    Response response = request("POST /Packages HTTP/1.1\r\n\r\n");
+    assertEquals(405, response.status);
+    assertEquals("GET, HEAD", response.headers.get("allow"));
+  }
+
+  @Test
+  public void keepsConnectionsAlive() throws IOException {
+    Socket socket = connect();
+    try {
+      OutputStream out = socket.getOutputStream();
+      InputStream in = socket.getInputStream();
+      out.write("GET /Packages HTTP/1.1\r\n\r\nGET /Release HTTP/1.1\r\n\r\n".getBytes(UTF8));
+      out.flush();
+      Response first = Response.read(in, false);
+      assertEquals(200, first.status);
+      assertEquals(PACKAGES, first.body);
+      assertNull(first.headers.get("connection"));
+      assertEquals(200, Response.read(in, false).status);
+      out.write("GET /Packages HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes(UTF8));
+      out.flush();
+      Response last = Response.read(in, false);
+      assertEquals("close", last.headers.get("connection"));
+      assertEquals(-1, in.read());
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void closesHttp10Connections() throws IOException {
+    Socket socket = connect();
+    try {
+      socket.getOutputStream().write("GET /Packages HTTP/1.0\r\n\r\n".getBytes(UTF8));
+      InputStream in = socket.getInputStream();
+      Response response = Response.read(in, false);
+      assertEquals(200, response.status);
+      assertEquals("close", response.headers.get("connection"));
+      assertEquals(-1, in.read());
+    } finally {
+      socket.close();
+    }
+  }
+
+  private Socket connect() throws IOException {
+    Socket socket = new Socket(address.getAddress(), address.getPort());
+    socket.setSoTimeout(5000);
+    return socket;
+  }
+
+  private Response request(String request) throws IOException {
+    Socket socket = connect();
+    try {
+      socket.getOutputStream().write(request.getBytes(UTF8));
+      return Response.read(socket.getInputStream(), request.startsWith("HEAD "));
+    } finally {
+      socket.close();
+    }
+  }
+
+  private static class Response {
+    private int status;
+    private final Map<String, String> headers = new HashMap<String, String>();
+    private String body;
+
+    private static Response read(InputStream in, boolean head) throws IOException {
+      Response response = new Response();
+      String statusLine = readLine(in);
+      response.status = Integer.parseInt(statusLine.split(" ")[1]);
+      String line;
+      while (!(line = readLine(in)).isEmpty()) {
+        int colon = line.indexOf(':');
+        response.headers.put(line.substring(0, colon).toLowerCase(Locale.ENGLISH),
+            line.substring(colon + 1).trim());
+      }
+      String length = response.headers.get("content-length");
+      int remaining = head || length == null ? 0 : Integer.parseInt(length);
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      while (remaining-- > 0) {
+        body.write(in.read());
+      }
+      response.body = new String(body.toByteArray(), UTF8);
+      return response;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      StringBuilder line = new StringBuilder();
+      int c;
+      while ((c = in.read()) != '\n') {
+        if (c == -1) {
+          throw new IOException("unexpected end of response");
+        }
+        if (c != '\r') {
+          line.append((char) c);
+        }
+      }
+      return line.toString();
+    }
+  }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Test;
+import org.m1theo.apt.repo.packages.PackageEntry;
+
+import java.nio.charset.Charset;
+
+/**
+ * Tests for {@link ControlStanza} and {@link ControlHandler}.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class ControlStanzaTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static ControlStanza parse(String control) throws MojoExecutionException {
+    byte[] bytes = control.getBytes(UTF8);
+    return ControlStanza.parse(bytes, 0, bytes.length);
+  }
+
+  private static String data(ControlStanza stanza) {
+    return new String(stanza.getData(), UTF8);
+  }
+
+  @Test
+  public void keepsFieldsInOrder() throws MojoExecutionException {
+    ControlStanza stanza = parse("Package: foo\nVersion: 1.0\nArchitecture: all\n");
+    assertEquals(3, stanza.size());
+    assertEquals("Package", stanza.getName(0));
+    assertEquals("foo", stanza.getValue(0));
+    assertEquals("1.0", stanza.get("Version"));
+    assertEquals("Package: foo\nVersion: 1.0\nArchitecture: all\n", data(stanza));
+  }
+
+  @Test
+  public void stripsCarriageReturns() throws MojoExecutionException {
+    ControlStanza stanza = parse("Package: foo\r\nDescription: short\r\n long\r\n");
+    assertEquals("Package: foo\nDescription: short\n long\n", data(stanza));
+    assertEquals("foo", stanza.get("Package"));
+    assertEquals("short\n long", stanza.get("Description"));
+  }
+
+  @Test
+  public void keepsContinuationLines() throws MojoExecutionException {
+    ControlStanza stanza = parse("Package: foo\nDescription: short\n line one\n .\n\tline two\n"
+        + "Depends: bar\n");
+    assertEquals(3, stanza.size());
+    assertEquals("short\n line one\n .\n\tline two", stanza.get("Description"));
+    assertEquals("bar", stanza.get("Depends"));
+  }
+
+  @Test
+  public void dropsCommentsAndInvalidLines() throws MojoExecutionException {
+    ControlStanza stanza = parse("# comment\nPackage: foo\n# another\nno field here\n: empty\n"
+        + "Version: 1\n");
+    assertEquals(2, stanza.size());
+    assertEquals("Package: foo\nVersion: 1\n", data(stanza));
+  }
+
+  @Test
+  public void dropsComputedFieldsWithTheirContinuationLines() throws MojoExecutionException {
+    ControlStanza stanza = parse("Package: foo\nSize: 1\n 2\nmd5sum: x\nFilename: a.deb\n"
+        + "SHA1: x\nSHA256: x\nSHA512: x\nVersion: 1\n");
+    assertEquals("Package: foo\nVersion: 1\n", data(stanza));
+    assertNull(stanza.get("Size"));
+  }
+
+  @Test
+  public void endsAtTheFirstEmptyLine() throws MojoExecutionException {
+    ControlStanza stanza = parse("\n  \nPackage: foo\n\nPackage: bar\n");
+    assertEquals(1, stanza.size());
+    assertEquals("foo", stanza.get("Package"));
+  }
+
+  @Test
+  public void addsTheMissingTrailingNewline() throws MojoExecutionException {
+    ControlStanza stanza = parse("Package: foo\nVersion: 1");
+    assertEquals("Package: foo\nVersion: 1\n", data(stanza));
+    assertEquals("1", stanza.get("Version"));
+    stanza = parse("P:x");
+    assertEquals("P:x\n", data(stanza));
+    assertEquals("x", stanza.get("P"));
+  }
+
+  @Test
+  public void parsesARegionOfTheBuffer() throws MojoExecutionException {
+    byte[] bytes = "xxPackage: foo\nyy".getBytes(UTF8);
+    ControlStanza stanza = ControlStanza.parse(bytes, 2, bytes.length - 4);
+    assertEquals("Package: foo\n", data(stanza));
+  }
+
+  @Test
+  public void matchesNamesCaseInsensitively() throws MojoExecutionException {
+    ControlStanza stanza = parse("package: foo\nVERSION: 1\n");
+    assertEquals("foo", stanza.get("Package"));
+    assertEquals("1", stanza.get("version"));
+    assertEquals("package", stanza.getName(0));
+  }
+
+  @Test
+  public void trimsValues() throws MojoExecutionException {
+    ControlStanza stanza = parse("Package :  foo  \t\n");
+    assertEquals("Package", stanza.getName(0));
+    assertEquals("foo", stanza.get("Package"));
+  }
+
+  @Test
+  public void failsWithoutFields() {
+    try {
+      parse("# only a comment\n\n");
+      fail("expected an exception");
+    } catch (MojoExecutionException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void handlerAcceptsLowerCaseFieldNames() throws MojoExecutionException {
+    ControlHandler handler = new ControlHandler();
+    handler.setControlContent("package: foo\nversion: 1.0\narchitecture: amd64\nsection: misc\n");
+    PackageEntry entry = new PackageEntry();
+    handler.handle(entry);
+    assertEquals("foo", entry.getPackageName());
+    assertEquals("1.0", entry.getVersion());
+    assertEquals("amd64", entry.getArchitecture());
+    assertEquals("misc", entry.getSection());
+  }
+
+  @Test
+  public void handlerRequiresAPackageField() {
+    ControlHandler handler = new ControlHandler();
+    handler.setControlContent("Version: 1.0\n");
+    try {
+      handler.handle(new PackageEntry());
+      fail("expected an exception");
+    } catch (MojoExecutionException e) {
+      // expected
+    }
+  }
+
+}
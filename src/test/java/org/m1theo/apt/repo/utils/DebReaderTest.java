@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.commons.compress.archivers.ar.ArArchiveEntry;
+import org.apache.commons.compress.archivers.ar.ArArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.lzma.LZMACompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link DebReader}: deb files are built in the test with control and data members in
+ * every compression dpkg-deb supports.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class DebReaderTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  // odd length, so the following members have to be found behind the ar padding byte
+  private static final String CONTROL = "Package: foo\nVersion: 1.0\nArchitecture: all\n\n";
+
+  private File dir;
+
+  @Before
+  public void createDir() throws IOException {
+    dir = Files.createTempDirectory("debreader").toFile();
+  }
+
+  @After
+  public void deleteDir() throws IOException {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  @Test
+  public void readsUncompressedControl() throws IOException {
+    assertControl("");
+  }
+
+  @Test
+  public void readsGzipControl() throws IOException {
+    assertControl(".gz");
+  }
+
+  @Test
+  public void readsXzControl() throws IOException {
+    assertControl(".xz");
+  }
+
+  @Test
+  public void readsZstdControl() throws IOException {
+    assertControl(".zst");
+  }
+
+  @Test
+  public void readsBzip2Control() throws IOException {
+    assertControl(".bz2");
+  }
+
+  @Test
+  public void readsLzmaControl() throws IOException {
+    assertControl(".lzma");
+  }
+
+  @Test
+  public void readsControlWithoutDotSlash() throws IOException {
+    Map<String, String> files = new LinkedHashMap<String, String>();
+    files.put("md5sums", "");
+    files.put("control", CONTROL);
+    File deb = deb(member("control.tar.gz", tar(files, ".gz")));
+    assertEquals(CONTROL, new String(DebReader.readControl(deb), UTF8));
+  }
+
+  @Test
+  public void returnsNullWithoutControlFile() throws IOException {
+    File deb = deb(member("control.tar.gz", tar(map("./md5sums", ""), ".gz")));
+    assertNull(DebReader.readControl(deb));
+  }
+
+  @Test
+  public void failsWithoutControlMember() throws IOException {
+    File deb = deb(member("data.tar.xz", tar(map("./usr/bin/foo", "#!/bin/sh\n"), ".xz")));
+    try {
+      DebReader.readControl(deb);
+      fail("no control member");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("control.tar"));
+    }
+  }
+
+  @Test
+  public void failsForUnsupportedCompression() throws IOException {
+    File deb = deb(member("control.tar.foo", new byte[10]));
+    try {
+      DebReader.readControl(deb);
+      fail("unsupported compression");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("control.tar.foo"));
+    }
+  }
+
+  @Test
+  public void failsForOtherFiles() throws IOException {
+    File file = new File(dir, "foo.deb");
+    FileUtils.fileWrite(file, "UTF-8", "Package: foo\n");
+    try {
+      DebReader.readControl(file);
+      fail("not an ar archive");
+    } catch (IOException e) {
+      assertEquals("not an ar archive", e.getMessage());
+    }
+  }
+
+  @Test
+  public void listsDataFiles() throws IOException {
+    for (String compression : Arrays.asList("", ".gz", ".xz", ".zst", ".bz2")) {
+      Map<String, String> files = new LinkedHashMap<String, String>();
+      files.put("./", null);
+      files.put("./usr/", null);
+      files.put("./usr/bin/foo", "#!/bin/sh\n");
+      files.put("./usr/share/doc/foo/copyright", "free\n");
+      File deb = deb(member("control.tar.xz", tar(map("./control", CONTROL), ".xz")),
+          member("data.tar" + compression, tar(files, compression)));
+      assertEquals(compression, Arrays.asList("usr/bin/foo", "usr/share/doc/foo/copyright"),
+          DebReader.listData(deb));
+    }
+  }
+
+  private void assertControl(String compression) throws IOException {
+    Map<String, String> files = new LinkedHashMap<String, String>();
+    files.put("./", null);
+    files.put("./md5sums", "d41d8cd98f00b204e9800998ecf8427e  usr/bin/foo\n");
+    files.put("./control", CONTROL);
+    File deb = deb(member("control.tar" + compression, tar(files, compression)),
+        member("data.tar" + compression, tar(map("./usr/bin/foo", ""), compression)));
+    assertEquals(CONTROL, new String(DebReader.readControl(deb), UTF8));
+  }
+
+  private static Map<String, String> map(String name, String content) {
+    Map<String, String> files = new LinkedHashMap<String, String>();
+    files.put(name, content);
+    return files;
+  }
+
+  /**
+   * Returns a tar archive of files (directories have null contents), compressed as given by the
+   * extension.
+   */
+  private static byte[] tar(Map<String, String> files, String compression) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OutputStream out = compress(bytes, compression);
+    TarArchiveOutputStream tar = new TarArchiveOutputStream(out);
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      TarArchiveEntry entry = new TarArchiveEntry(file.getKey());
+      if (file.getValue() == null) {
+        tar.putArchiveEntry(entry);
+      } else {
+        byte[] content = file.getValue().getBytes(UTF8);
+        entry.setSize(content.length);
+        tar.putArchiveEntry(entry);
+        tar.write(content);
+      }
+      tar.closeArchiveEntry();
+    }
+    tar.close();
+    return bytes.toByteArray();
+  }
+
+  private static OutputStream compress(OutputStream out, String compression) throws IOException {
+    if (compression.isEmpty()) {
+      return out;
+    } else if (compression.equals(".gz")) {
+      return new GzipCompressorOutputStream(out);
+    } else if (compression.equals(".xz")) {
+      return new XZCompressorOutputStream(out);
+    } else if (compression.equals(".zst")) {
+      return new ZstdCompressorOutputStream(out);
+    } else if (compression.equals(".bz2")) {
+      return new BZip2CompressorOutputStream(out);
+    } else if (compression.equals(".lzma")) {
+      return new LZMACompressorOutputStream(out);
+    }
+    throw new IllegalArgumentException(compression);
+  }
+
+  private static Object[] member(String name, byte[] content) {
+    return new Object[] {name, content};
+  }
+
+  /**
+   * Writes a deb file with a debian-binary member followed by members.
+   */
+  private File deb(Object[]... members) throws IOException {
+    File deb = new File(dir, "test.deb");
+    ArArchiveOutputStream ar = new ArArchiveOutputStream(new FileOutputStream(deb));
+    try {
+      addMember(ar, "debian-binary", "2.0\n".getBytes(UTF8));
+      for (Object[] member : members) {
+        addMember(ar, (String) member[0], (byte[]) member[1]);
+      }
+    } finally {
+      ar.close();
+    }
+    return deb;
+  }
+
+  private static void addMember(ArArchiveOutputStream ar, String name, byte[] content)
+      throws IOException {
+    ar.putArchiveEntry(new ArArchiveEntry(name, content.length));
+    ar.write(content);
+    ar.closeArchiveEntry();
+  }
+
+}
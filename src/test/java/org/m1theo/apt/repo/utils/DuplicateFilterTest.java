@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Tests for {@link DuplicateFilter}: files are told apart by size, by the partial hash of their
+ * start and end and, if that covers not the whole file, by the SHA-256 of their content.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class DuplicateFilterTest {
+  private static final int LARGE = 3 * DuplicateFilter.PARTIAL_SIZE;
+
+  private File dir;
+  private DuplicateFilter filter;
+
+  @Before
+  public void createDir() throws IOException {
+    dir = Files.createTempDirectory("duplicates").toFile();
+    filter = new DuplicateFilter(null, new SystemStreamLog());
+  }
+
+  @After
+  public void deleteDir() throws IOException {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  @Test
+  public void skipsSameContentUnderOtherNames() throws Exception {
+    File a = file("a.deb", content(100, 1));
+    File b = file("b.deb", content(200, 2));
+    File c = file("c.deb", content(100, 1));
+    assertEquals(Arrays.asList(a, b), filter.filter(Arrays.asList(a, b, c)));
+    assertEquals(Arrays.asList(c, b), filter.filter(Arrays.asList(c, b, a)));
+  }
+
+  @Test
+  public void skipsFilesGivenTwice() throws Exception {
+    File a = file("a.deb", content(100, 1));
+    File b = file("b.deb", content(100, 2));
+    File again = new File(dir, "x/../a.deb");
+    new File(dir, "x").mkdir();
+    assertEquals(Arrays.asList(a, b), filter.filter(Arrays.asList(a, b, again)));
+  }
+
+  @Test
+  public void keepsFilesOfSameSizeWithOtherContent() throws Exception {
+    File a = file("a.deb", content(100, 1));
+    File b = file("b.deb", content(100, 2));
+    assertEquals(Arrays.asList(a, b), filter.filter(Arrays.asList(a, b)));
+    assertFalse(filter.isSameContent(a, b));
+  }
+
+  @Test
+  public void comparesWholeContentBeyondPartialHash() throws Exception {
+    byte[] content = content(LARGE, 1);
+    File a = file("a.deb", content);
+    File b = file("b.deb", content);
+    // same start and end, only the middle differs
+    content[LARGE / 2] ^= 1;
+    File c = file("c.deb", content);
+    assertEquals(Arrays.asList(a, c), filter.filter(Arrays.asList(a, b, c)));
+    assertTrue(filter.isSameContent(a, b));
+    assertFalse(filter.isSameContent(a, c));
+  }
+
+  @Test
+  public void comparesPartialHashOfLargeFiles() throws Exception {
+    byte[] content = content(LARGE, 1);
+    File a = file("a.deb", content);
+    content[LARGE - 1] ^= 1;
+    File b = file("b.deb", content);
+    assertEquals(Arrays.asList(a, b), filter.filter(Arrays.asList(a, b)));
+    assertFalse(filter.isSameContent(a, b));
+  }
+
+  @Test
+  public void comparesSizeFirst() throws Exception {
+    File a = file("a.deb", content(100, 1));
+    File b = file("b.deb", content(101, 1));
+    assertFalse(filter.isSameContent(a, b));
+  }
+
+  @Test
+  public void returnsFilesWithoutDuplicates() throws Exception {
+    File a = file("a.deb", content(100, 1));
+    assertEquals(Collections.singletonList(a), filter.filter(Collections.singletonList(a)));
+    assertTrue(filter.filter(Collections.<File>emptyList()).isEmpty());
+  }
+
+  private static byte[] content(int size, long seed) {
+    byte[] content = new byte[size];
+    new Random(seed).nextBytes(content);
+    return content;
+  }
+
+  private File file(String name, byte[] content) throws IOException {
+    File file = new File(dir, name);
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content);
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Round trip tests for {@link ParallelGzipOutputStream} and {@link ParallelXzOutputStream}.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class ParallelCompressionTest {
+  private static final int THREADS = 4;
+  private static final int GZIP_BLOCK = ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE;
+  private static final int XZ_BLOCK = ParallelXzOutputStream.DEFAULT_BLOCK_SIZE;
+
+  private static ExecutorService executor;
+
+  @BeforeClass
+  public static void startExecutor() {
+    executor = Executors.newFixedThreadPool(THREADS);
+  }
+
+  @AfterClass
+  public static void stopExecutor() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Returns text like data, compressible and with matches reaching across block boundaries.
+   */
+  private static byte[] createData(int length) {
+    Random random = new Random(length);
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = random.nextInt(8) == 0 ? (byte) random.nextInt(256) : (byte) ('a' + i % 23);
+    }
+    return data;
+  }
+
+  private static byte[] gzip(byte[] data, int chunk) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    write(new ParallelGzipOutputStream(result, 6, executor, THREADS), data, chunk);
+    return result.toByteArray();
+  }
+
+  private static byte[] xz(byte[] data, int chunk) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    write(new ParallelXzOutputStream(result, new LZMA2Options(1), executor, THREADS), data,
+        chunk);
+    return result.toByteArray();
+  }
+
+  private static void write(OutputStream out, byte[] data, int chunk) throws IOException {
+    for (int offset = 0; offset < data.length; offset += chunk) {
+      out.write(data, offset, Math.min(chunk, data.length - offset));
+    }
+    out.close();
+  }
+
+  private static byte[] read(InputStream in) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buffer = new byte[64 * 1024];
+    int n;
+    while ((n = in.read(buffer)) != -1) {
+      result.write(buffer, 0, n);
+    }
+    in.close();
+    return result.toByteArray();
+  }
+
+  private static void assertGzipRoundTrip(int length, int chunk) throws IOException {
+    byte[] data = createData(length);
+    byte[] compressed = gzip(data, chunk);
+    assertArrayEquals("length " + length, data,
+        read(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+  }
+
+  private static void assertXzRoundTrip(int length, int chunk) throws IOException {
+    byte[] data = createData(length);
+    byte[] compressed = xz(data, chunk);
+    assertArrayEquals("length " + length, data,
+        read(new XZInputStream(new ByteArrayInputStream(compressed))));
+  }
+
+  @Test
+  public void gzipEmptyInput() throws IOException {
+    assertGzipRoundTrip(0, 1);
+  }
+
+  @Test
+  public void gzipSmallInput() throws IOException {
+    assertGzipRoundTrip(1, 1);
+    assertGzipRoundTrip(1000, 7);
+  }
+
+  @Test
+  public void gzipAroundBlockBoundaries() throws IOException {
+    assertGzipRoundTrip(GZIP_BLOCK - 1, 64 * 1024);
+    assertGzipRoundTrip(GZIP_BLOCK + 1, 64 * 1024);
+    assertGzipRoundTrip(5 * GZIP_BLOCK + 12345, 100000);
+  }
+
+  @Test
+  public void gzipExactMultipleOfBlockSize() throws IOException {
+    assertGzipRoundTrip(GZIP_BLOCK, GZIP_BLOCK);
+    assertGzipRoundTrip(3 * GZIP_BLOCK, 3 * GZIP_BLOCK);
+    assertGzipRoundTrip(3 * GZIP_BLOCK, 4096);
+  }
+
+  @Test
+  public void gzipIsASingleMember() throws IOException {
+    byte[] compressed = gzip(createData(3 * GZIP_BLOCK), 65536);
+    assertEquals(0x1f, compressed[0] & 0xff);
+    assertEquals(0x8b, compressed[1] & 0xff);
+    // the trailer of a single member holds the size of all the data
+    int n = compressed.length;
+    int size = (compressed[n - 4] & 0xff) | (compressed[n - 3] & 0xff) << 8
+        | (compressed[n - 2] & 0xff) << 16 | (compressed[n - 1] & 0xff) << 24;
+    assertEquals(3 * GZIP_BLOCK, size);
+  }
+
+  @Test
+  public void xzEmptyInput() throws IOException {
+    assertXzRoundTrip(0, 1);
+  }
+
+  @Test
+  public void xzSmallInput() throws IOException {
+    assertXzRoundTrip(1, 1);
+    assertXzRoundTrip(1000, 7);
+  }
+
+  @Test
+  public void xzAroundBlockBoundaries() throws IOException {
+    assertXzRoundTrip(XZ_BLOCK - 1, 1024 * 1024);
+    assertXzRoundTrip(XZ_BLOCK + 12345, 1000000);
+  }
+
+  @Test
+  public void xzExactMultipleOfBlockSize() throws IOException {
+    assertXzRoundTrip(2 * XZ_BLOCK, 65536);
+  }
+
+  @Test
+  public void xzLimitsTheDictionaryAndMemory() throws IOException {
+    LZMA2Options preset9 = new LZMA2Options(9);
+    int threads = ParallelXzOutputStream.getThreads(preset9, 1000);
+    assertTrue(threads >= 1 && threads < 1000);
+    assertEquals(1, ParallelXzOutputStream.getThreads(preset9, 1));
+    // the stream itself works with the limited dictionary
+    byte[] data = createData(100000);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    write(new ParallelXzOutputStream(compressed, preset9, executor, THREADS), data, 4096);
+    assertArrayEquals(data,
+        read(new XZInputStream(new ByteArrayInputStream(compressed.toByteArray()))));
+  }
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link RepoLock}: the lock of a directory is exclusive between threads, also if
+ * RepoLock is loaded by several class loaders as by the class realms of a Maven build.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class RepoLockTest {
+  private File dir;
+
+  @Before
+  public void createDir() throws IOException {
+    dir = Files.createTempDirectory("repolock").toFile();
+  }
+
+  @After
+  public void deleteDir() throws IOException {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  @Test
+  public void isReentrant() throws Exception {
+    RepoLock lock = RepoLock.acquire(dir);
+    try {
+      RepoLock.acquire(dir).release();
+    } finally {
+      lock.release();
+    }
+    RepoLock.acquire(dir).release();
+  }
+
+  @Test
+  public void excludesOtherThreads() throws Exception {
+    assertExclusive(RepoLock.class, RepoLock.class);
+  }
+
+  @Test
+  public void excludesOtherClassLoaders() throws Exception {
+    Class<?> other = new RepoLockLoader().loadClass(RepoLock.class.getName());
+    assertNotSame(RepoLock.class, other);
+    assertExclusive(RepoLock.class, other);
+  }
+
+  /**
+   * Holds the lock of dir with the first class while a thread acquires it with the second one.
+   */
+  private void assertExclusive(Class<?> holder, Class<?> waiter) throws Exception {
+    Object lock = acquire(holder);
+    final Method acquire = waiter.getMethod("acquire", File.class);
+    final CountDownLatch acquired = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          Object other = acquire.invoke(null, dir);
+          acquired.countDown();
+          other.getClass().getMethod("release").invoke(other);
+        } catch (Throwable e) {
+          failure.set(e);
+        }
+      }
+    });
+    thread.start();
+    try {
+      assertFalse(acquired.await(3 * RepoLock.RETRY_INTERVAL, TimeUnit.MILLISECONDS));
+    } finally {
+      lock.getClass().getMethod("release").invoke(lock);
+    }
+    assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    thread.join(5000);
+    assertNull(failure.get());
+  }
+
+  private Object acquire(Class<?> repoLock) throws Exception {
+    return repoLock.getMethod("acquire", File.class).invoke(null, dir);
+  }
+
+  /**
+   * Loads its own copy of RepoLock and delegates all other classes to the loader of the test.
+   */
+  private static class RepoLockLoader extends ClassLoader {
+    RepoLockLoader() {
+      super(RepoLockTest.class.getClassLoader());
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (!name.equals(RepoLock.class.getName())) {
+        return super.loadClass(name, resolve);
+      }
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> c = findLoadedClass(name);
+        if (c == null) {
+          InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+          try {
+            byte[] bytes = IOUtil.toByteArray(in);
+            c = defineClass(name, bytes, 0, bytes.length);
+          } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+          } finally {
+            IOUtil.close(in);
+          }
+        }
+        return c;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2010-2013, theo@m1theo.org.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.m1theo.apt.repo.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link Stager}: every staging mode, the fallback to copying, files already staged
+ * and replacing files of the same name.
+ *
+ * @author Theo Weiss
+ * @since 0.3.1
+ *
+ */
+public class StagerTest {
+  private static final long MODIFIED = 1500000000000L;
+
+  private File dir;
+  private File repo;
+  private final List<String> warnings = new ArrayList<String>();
+  private final SystemStreamLog log = new SystemStreamLog() {
+    @Override
+    public void warn(CharSequence content) {
+      warnings.add(content.toString());
+      super.warn(content);
+    }
+  };
+
+  @Before
+  public void createDirs() throws IOException {
+    dir = Files.createTempDirectory("stager").toFile();
+    repo = new File(dir, "repo");
+    repo.mkdir();
+  }
+
+  @After
+  public void deleteDirs() throws IOException {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  @Test
+  public void copiesWithModificationTime() throws Exception {
+    File source = file("a/foo.deb", "foo");
+    File staged = new Stager(StagingMode.COPY, log).stage(source, repo);
+    assertEquals(new File(repo, "foo.deb"), staged);
+    assertEquals("foo", read(staged));
+    assertFalse(Files.isSameFile(source.toPath(), staged.toPath()));
+    assertEquals(source.lastModified(), staged.lastModified());
+  }
+
+  @Test
+  public void createsHardLinks() throws Exception {
+    File source = file("a/foo.deb", "foo");
+    File staged = new Stager(StagingMode.HARDLINK, log).stage(source, repo);
+    assertTrue(Files.isSameFile(source.toPath(), staged.toPath()));
+    assertFalse(Files.isSymbolicLink(staged.toPath()));
+  }
+
+  @Test
+  public void createsSymbolicLinks() throws Exception {
+    File source = file("a/foo.deb", "foo");
+    File staged = new Stager(StagingMode.SYMLINK, log).stage(source, repo);
+    assertTrue(Files.isSymbolicLink(staged.toPath()));
+    assertEquals(source.getAbsoluteFile().toPath(), Files.readSymbolicLink(staged.toPath()));
+    assertEquals("foo", read(staged));
+  }
+
+  @Test
+  public void copiesIfReflinkIsNotSupported() throws Exception {
+    // most file systems of build machines cannot clone files, then the file is copied
+    File source = file("a/foo.deb", "foo");
+    File staged = new Stager(StagingMode.REFLINK, log).stage(source, repo);
+    assertEquals("foo", read(staged));
+    assertFalse(Files.isSymbolicLink(staged.toPath()));
+    assertFalse(Files.isSameFile(source.toPath(), staged.toPath()));
+    assertEquals(source.lastModified(), staged.lastModified());
+  }
+
+  @Test
+  public void copiesIfLinkingFails() throws Exception {
+    // hard links cannot cross file systems, /dev/shm is a separate one on most Linux machines
+    File shm = new File("/dev/shm");
+    assumeTrue(shm.isDirectory() && shm.canWrite());
+    File other = Files.createTempDirectory(shm.toPath(), "stager").toFile();
+    try {
+      assumeTrue(!Files.getFileStore(other.toPath()).equals(Files.getFileStore(repo.toPath())));
+      File source = new File(other, "foo.deb");
+      FileUtils.fileWrite(source, "UTF-8", "foo");
+      File staged = new Stager(StagingMode.HARDLINK, log).stage(source, repo);
+      assertEquals("foo", read(staged));
+      assertFalse(Files.isSameFile(source.toPath(), staged.toPath()));
+    } finally {
+      FileUtils.deleteDirectory(other);
+    }
+  }
+
+  @Test
+  public void keepsFilesWithSameSizeAndModificationTime() throws Exception {
+    File source = file("a/foo.deb", "foo");
+    File staged = new Stager(StagingMode.COPY, log).stage(source, repo);
+    // not read again: a file of the same size and modification time counts as staged
+    FileUtils.fileWrite(staged, "UTF-8", "bar");
+    staged.setLastModified(source.lastModified());
+    new Stager(StagingMode.COPY, log).stage(source, repo);
+    assertEquals("bar", read(staged));
+    assertTrue(warnings.isEmpty());
+  }
+
+  @Test
+  public void keepsFilesWithSameContent() throws Exception {
+    File source = file("a/foo.deb", "foo");
+    File staged = file("repo/foo.deb", "foo");
+    staged.setLastModified(MODIFIED - 60000);
+    new Stager(StagingMode.HARDLINK, log).stage(source, repo);
+    assertFalse(Files.isSameFile(source.toPath(), staged.toPath()));
+    assertEquals(MODIFIED - 60000, staged.lastModified());
+    assertTrue(warnings.isEmpty());
+  }
+
+  @Test
+  public void replacesFilesWithOtherContent() throws Exception {
+    File source = file("a/foo.deb", "new");
+    File staged = file("repo/foo.deb", "old");
+    staged.setLastModified(MODIFIED - 60000);
+    new Stager(StagingMode.COPY, log).stage(source, repo);
+    assertEquals("new", read(staged));
+    assertEquals(1, warnings.size());
+    assertTrue(warnings.get(0), warnings.get(0).contains("different content"));
+  }
+
+  @Test
+  public void replacesHardLinksWithoutWritingThrough() throws Exception {
+    File first = file("a/foo.deb", "first build");
+    File staged = new Stager(StagingMode.HARDLINK, log).stage(first, repo);
+    File second = file("b/foo.deb", "second one!");
+    second.setLastModified(MODIFIED + 60000);
+    new Stager(StagingMode.COPY, log).stage(second, repo);
+    assertEquals("second one!", read(staged));
+    // the artifact the old link pointed to is unchanged
+    assertEquals("first build", read(first));
+    assertFalse(Files.isSameFile(first.toPath(), staged.toPath()));
+  }
+
+  @Test
+  public void stagesUnderAnotherName() throws Exception {
+    File source = file("a/foo.deb", "foo");
+    File target = new File(repo, "pool/f/foo/foo_1.0_all.deb");
+    target.getParentFile().mkdirs();
+    assertEquals(target, new Stager(StagingMode.SYMLINK, log).stageAs(source, target));
+    assertEquals("foo", read(target));
+  }
+
+  private File file(String path, String content) throws IOException {
+    File file = new File(dir, path);
+    file.getParentFile().mkdirs();
+    FileUtils.fileWrite(file, "UTF-8", content);
+    file.setLastModified(MODIFIED);
+    return file;
+  }
+
+  private static String read(File file) throws IOException {
+    return FileUtils.fileRead(file, "UTF-8");
+  }
+
+}